@@ -0,0 +1,193 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * @file CollageBenchmark.java
+ *
+ * This class measures the throughput of one User Node handling many concurrent collages over
+ * disjoint source files, with the handlers synchronized on the node as before, and with the
+ * handlers locking the source files they touch now.
+ *
+ * Each collage runs the commit query and then the commit message of its own source files.
+ * The query asks the user first, a stub that takes a fixed time, and then prepares the files.
+ * The synchronized node asks while holding the node, as its handlers did, while the locked
+ * node asks before locking the files, as the handlers of the User Node do.
+ *
+ * Usage : java CollageBenchmark [ask ms] [collages] [threads]
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class CollageBenchmark {
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private static final long DEFAULT_ASK_MILLIS = 2;
+	private static final int DEFAULT_COLLAGES = 2000;
+	private static final int DEFAULT_THREADS = 32;
+	private static final int FILES_PER_COLLAGE = 2;
+	// the collages run before measuring, to warm up the JIT
+	private static final int WARM_UP_COLLAGES = 200;
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	public static void main(String[] args) throws InterruptedException {
+
+		long askMillis = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_ASK_MILLIS;
+		int numCollages = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_COLLAGES;
+		int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_THREADS;
+
+		// the source files of each collage, disjoint from the files of the others
+		String[][] sources = new String[numCollages][FILES_PER_COLLAGE];
+		for (int i = 0; i < numCollages; i ++) {
+			for (int j = 0; j < FILES_PER_COLLAGE; j ++) {
+				sources[i][j] = i + "-" + j + ".jpg";
+			}
+		}
+
+		System.out.println(numCollages + " collages over disjoint files on " + numThreads
+				   + " threads, asking the user takes " + askMillis + " ms");
+
+		run(new StubNode(false, askMillis), sources, WARM_UP_COLLAGES, numThreads);
+		run(new StubNode(true, askMillis), sources, WARM_UP_COLLAGES, numThreads);
+		report("synchronized node",
+		       run(new StubNode(false, askMillis), sources, numCollages, numThreads));
+		report("locked files",
+		       run(new StubNode(true, askMillis), sources, numCollages, numThreads));
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Helpers   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Runs the collages on the node, each handled by one of the threads.
+	 *
+	 * @param node - the stub node
+	 * @param sources - the source files of each collage
+	 * @param numCollages - the number of collages run
+	 * @param numThreads - the number of threads handling the collages
+	 * @return throughput - the collages per second
+	 */
+	private static double run(StubNode node, String[][] sources, int numCollages,
+				  int numThreads) throws InterruptedException {
+
+		ExecutorService handlers = Executors.newFixedThreadPool(numThreads);
+		long start = System.nanoTime();
+		for (int i = 0; i < numCollages; i ++) {
+			String[] files = sources[i];
+			handlers.execute(() -> {
+				if (node.query(files)) {
+					node.commit(files);
+				}
+			});
+		}
+		handlers.shutdown();
+		handlers.awaitTermination(1, TimeUnit.HOURS);
+
+		return numCollages / ((System.nanoTime() - start) / 1e9);
+	}
+
+	private static void report(String name, double throughput) {
+		System.out.printf("%-20s %10.0f collages/s%n", name, throughput);
+	}
+
+
+	/* ----------------------------   Helper Class   ---------------------------- */
+
+	/**
+	 * A User Node that only keeps the prepared source files, and whose user takes a fixed
+	 * time to answer.
+	 *
+	 * @author YanningMao
+	 *
+	 */
+	private static class StubNode {
+
+		private final boolean lockFiles;
+		private final long askMillis;
+		private final SourceFileLocks fileLocks;
+		private final ConcurrentMap<String, String> filesPrepared;
+
+		private StubNode(boolean lockFiles, long askMillis) {
+			this.lockFiles = lockFiles;
+			this.askMillis = askMillis;
+			this.fileLocks = new SourceFileLocks();
+			this.filesPrepared = new ConcurrentHashMap<>();
+		}
+
+		private boolean query(String[] files) {
+			if (!lockFiles) {
+				synchronized (this) {
+					return askUser() && prepare(files);
+				}
+			}
+
+			if (!askUser()) {
+				return false;
+			}
+			int[] locked = fileLocks.lock(files);
+			try {
+				return prepare(files);
+			} finally {
+				fileLocks.unlock(locked);
+			}
+		}
+
+		private void commit(String[] files) {
+			if (!lockFiles) {
+				synchronized (this) {
+					release(files);
+				}
+				return;
+			}
+
+			int[] locked = fileLocks.lock(files);
+			try {
+				release(files);
+			} finally {
+				fileLocks.unlock(locked);
+			}
+		}
+
+		private boolean askUser() {
+			try {
+				TimeUnit.MILLISECONDS.sleep(askMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			return true;
+		}
+
+		private boolean prepare(String[] files) {
+			for (String file : files) {
+				if (filesPrepared.containsKey(file)) {
+					return false;
+				}
+			}
+			for (String file : files) {
+				filesPrepared.put(file, file);
+			}
+			return true;
+		}
+
+		private void release(String[] files) {
+			for (String file : files) {
+				filesPrepared.remove(file);
+			}
+		}
+	}
+
+}
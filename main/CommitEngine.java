@@ -0,0 +1,113 @@
+import java.util.concurrent.ExecutorService;
+
+/**
+ *
+ * @file CommitEngine.java
+ *
+ * This class drives all the commit processes of the Server.
+ *
+ * A commit process never owns a thread. It is a state machine that reacts to the messages
+ * from the User Nodes and to its time out events. The engine runs these events on a small
+ * fixed pool of worker threads, so the number of concurrent commits is not bounded by the
+ * number of threads.
+ * 
+ * The worker threads are platform or virtual threads depending on the ExecutionMode.
+ * Time out events are kept by a single HashedWheelTimer thread, which hands them to the
+ * workers.
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class CommitEngine {
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private static final int NUM_WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------   Instance Variables   ----------------------- */
+	/* -------------------------------------------------------------------- */
+
+	// the kind of the worker threads
+	private final ExecutionMode mode;
+	// the worker threads that run commit events and time out events
+	private final ExecutorService workers;
+	// the timer thread that keeps the pending time out events
+	private final HashedWheelTimer timer;
+	// the round-trip times of the User Nodes, shared by all the commits
+	private final RttEstimator rttEstimator;
+
+
+	/* -------------------------------------------------------------------- */
+	/* -------------------------   Constructor   -------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Constructs a CommitEngine whose worker threads run in the given mode.
+	 * 
+	 * @param mode - the execution mode
+	 */
+	public CommitEngine(ExecutionMode mode) {
+		this.mode = mode;
+		workers = mode.newExecutor(NUM_WORKERS);
+		timer = new HashedWheelTimer(workers);
+		rttEstimator = new RttEstimator(CommitProcess.TIME_OUT_MILLIS);
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Starts the commit process on the engine.
+	 *
+	 * @param commitProcess - the commit process
+	 */
+	public void start(CommitProcess commitProcess) {
+		workers.execute(commitProcess);
+	}
+
+	/**
+	 * Runs an event of a commit process on the engine.
+	 *
+	 * @param event - the event
+	 */
+	public void execute(Runnable event) {
+		workers.execute(event);
+	}
+
+	/**
+	 * Runs a time out event of a commit process at the absolute deadline.
+	 *
+	 * @param event - the time out event
+	 * @param deadlineNanos - the deadline, in the time of System.nanoTime
+	 * @return timeout - the handle used to cancel the time out
+	 */
+	public HashedWheelTimer.Timeout schedule(Runnable event, long deadlineNanos) {
+		return timer.schedule(event, deadlineNanos);
+	}
+	
+	/**
+	 * Gets the round-trip time estimator of the User Nodes.
+	 * 
+	 * @return rttEstimator - the round-trip time estimator
+	 */
+	public RttEstimator getRttEstimator() {
+		return rttEstimator;
+	}
+	
+	/**
+	 * Gets the kind of the worker threads.
+	 * 
+	 * @return mode - the execution mode
+	 */
+	public ExecutionMode getMode() {
+		return mode;
+	}
+
+}
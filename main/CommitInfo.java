@@ -1,5 +1,8 @@
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -12,6 +15,12 @@ import java.util.Set;
  * This class has variables that store the commit file name, the sources, and the contributors,
  * and has getters that gets the relevant information.
  * 
+ * The sources are parsed once into an immutable index of the contributors, which holds the
+ * source files of each contributor as an array, and the files of all the contributors are
+ * encoded once as the recipients of the shared messages of the commit. Both are shared by all
+ * the queries, decisions and re-sends of the commit, so none of them parses or encodes the
+ * files again.
+ * 
  * @author YanningMao <yanningm@andrew.cmu.edu>
  * @date April 19, 2018
  *
@@ -33,7 +42,11 @@ public class CommitInfo {
 	// list of sources in the format <contributor>:<sourceFile>
 	private String[] sources;
 	// map from contributor to its sources
-	private Map<String, List<String>> files;
+	private Map<String, String[]> contributors;
+	// the contributors and their sources, encoded as the recipients of a shared message
+	private byte[] recipients;
+	// the interned IDs of the contributors
+	private BitSet userIds;
 	
 
 	/* -------------------------------------------------------------------- */
@@ -103,57 +116,96 @@ public class CommitInfo {
 	 */
 	public List<String> getFilesFromUser(String user) {
 
-		if (!files.containsKey(user)) {
+		if (!contributors.containsKey(user)) {
 			return null;
 		}
 
 		else {
-			return files.get(user);
+			return Collections.unmodifiableList(Arrays.asList(contributors.get(user)));
 		}
 	}
 
+	/**
+	 * Gets the contributors and their source files, as encoded by
+	 * MessageCodec.encodeRecipients, which must not be modified.
+	 * 
+	 * @return recipients - the encoded contributors and files
+	 */
+	public byte[] getRecipients() {
+		return recipients;
+	}
+
 	/**
 	 * Gets the list of contributors.
 	 * 
 	 * @return user - all the contributors
 	 */
 	public Set<String> getUsers() {
-		return files.keySet();
+		return contributors.keySet();
+	}
+
+	/**
+	 * Gets the number of contributors.
+	 * 
+	 * @return numUsers - the number of contributors
+	 */
+	public int getNumUsers() {
+		return contributors.size();
+	}
+
+	/**
+	 * Checks whether the User Node with the interned ID is a contributor.
+	 * 
+	 * @param nodeId - the ID of the User Node, as interned by NodeIds
+	 * @return true - if the User Node is a contributor
+	 * 	   false - otherwise
+	 */
+	public boolean hasUser(int nodeId) {
+		return nodeId >= 0 && userIds.get(nodeId);
 	}
 
 	/**
-	 * Parses the list of all sources by their contributors, and build a map that maps from
-	 * the user node to its source files.
+	 * Parses the list of all sources by their contributors, and build the index that maps
+	 * from the user node to its source files.
 	 * 
 	 * @param sources - all the sources
 	 */
 	private void parseSources(String[] sources) {
 
-		// initialize the map
-		files = new HashMap<>();
+		userIds = new BitSet();
 
 		// initialize the map to store the contributors and sources
 		if (sources == null || sources.length == 0) {
+			contributors = Collections.emptyMap();
+			recipients = MessageCodec.encodeRecipients(contributors);
 			return;
 		}
 
 		// parse the sources
+		Map<String, List<String>> files = new LinkedHashMap<>();
 		for (String source : sources) {
 
 			// get contributor and file name
-			String[] nodeAndFile = source.split(COLON);
-			String nodeName = nodeAndFile[0];
-			String fileName = nodeAndFile[1];
+			int colon = source.indexOf(COLON);
+			String nodeName = source.substring(0, colon);
+			String fileName = source.substring(colon + 1);
 
 			// add the file to the node
 			if (!files.containsKey(nodeName)) {
 				files.put(nodeName, new ArrayList<>());
+				userIds.set(NodeIds.intern(nodeName));
 			}
 			files.get(nodeName).add(fileName);
 		}
+
+		// build the index
+		Map<String, String[]> index = new LinkedHashMap<>();
+		for (Map.Entry<String, List<String>> entry : files.entrySet()) {
+			index.put(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+		}
+		contributors = Collections.unmodifiableMap(index);
+		recipients = MessageCodec.encodeRecipients(contributors);
 	}
 
 
 }
-
-
@@ -0,0 +1,417 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * @file CommitLog.java
+ *
+ * This class is the write-ahead log holding the records of all the commits of the Server.
+ *
+ * The log is split into segments of fixed size, named by their increasing segment IDs.
+ * Each record is framed as :
+ *
+ *   length (int) | CRC32 of the rest (int) | sequence number (long) | record content
+ *
+ * Records are only appended to the active segment. Each time a new segment is started, the
+ * log writes a checkpoint holding the records of the commits that are not DONE, the segment
+ * to replay from and the next sequence number, and then deletes all the older segments.
+ * Recovery loads the checkpoint and only replays the segments after it, so its time grows
+ * with the number of unfinished commits rather than with the whole history.
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class CommitLog {
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	public static final long SEGMENT_SIZE = 1 << 20;
+
+	private static final String SEGMENT_PREFIX = "segment_";
+	private static final String SEGMENT_SUFFIX = ".wal";
+	private static final String CHECKPOINT_FNAME = "checkpoint";
+	private static final String TMP_SUFFIX = ".tmp";
+	private static final int CHECKPOINT_VERSION = 1;
+	// length and CRC
+	private static final int FRAME_HEADER_SIZE = 8;
+	// sequence number
+	private static final int SEQ_SIZE = 8;
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------   Instance Variables   ----------------------- */
+	/* -------------------------------------------------------------------- */
+
+	// the directory of the segments
+	private final File logDir;
+
+	// the sequence number of the next record
+	private long nextSeq;
+
+	// the segment being appended to, and the last segment found on recovery
+	private long activeSegmentId;
+	private long lastSegmentId;
+	private FileChannel activeSegment;
+	private long activeSize;
+
+	// the records of the commits that are not DONE, in the order of the log
+	private Map<String, List<CommitLogRecord>> inFlight;
+
+
+	/* -------------------------------------------------------------------- */
+	/* -------------------------   Constructor   -------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Constructs the commit log in the given directory. The log must be recovered before
+	 * any record is appended.
+	 *
+	 * @param logDir - the directory of the segments
+	 */
+	public CommitLog(String logDir) {
+		this.logDir = new File(logDir);
+		this.nextSeq = 0;
+		this.activeSegmentId = -1;
+		this.lastSegmentId = -1;
+		this.inFlight = new LinkedHashMap<>();
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Reads the records of the unfinished commits from the last checkpoint, then the records
+	 * of the segments after it in order, and prepares the log for appending.
+	 * Reading stops at the first torn or corrupted record, and new records are appended
+	 * to a new segment.
+	 *
+	 * @return records - the records of the checkpoint and of the log after it
+	 * @throws IOException - exception when reading
+	 */
+	public synchronized List<CommitLogRecord> recover() throws IOException {
+
+		List<CommitLogRecord> records = new ArrayList<>();
+		long firstSegmentId = readCheckpoint(records);
+
+		List<Long> segmentIds = listSegments();
+		if (!segmentIds.isEmpty()) {
+			lastSegmentId = Math.max(lastSegmentId,
+						 segmentIds.get(segmentIds.size() - 1));
+		}
+
+		for (long segmentId : segmentIds) {
+
+			// already covered by the checkpoint
+			if (segmentId < firstSegmentId) {
+				continue;
+			}
+
+			byte[] bytes = Files.readAllBytes(getSegmentFile(segmentId).toPath());
+			ByteBuffer segment = ByteBuffer.wrap(bytes);
+
+			while (segment.remaining() >= FRAME_HEADER_SIZE + SEQ_SIZE) {
+
+				int start = segment.position();
+				int length = segment.getInt();
+				int crc = segment.getInt();
+
+				// a torn record at the end of the log
+				if (length < SEQ_SIZE || length > segment.remaining()) {
+					System.err.println("Commit log ends with a torn record in segment "
+								+ segmentId + " at " + start);
+					return finishRecovery(records);
+				}
+
+				// a corrupted record
+				CRC32 checksum = new CRC32();
+				checksum.update(bytes, segment.position(), length);
+				long seq = segment.getLong();
+				if ((int) checksum.getValue() != crc || seq < nextSeq) {
+					System.err.println("Commit log has a corrupted record in segment "
+								+ segmentId + " at " + start);
+					return finishRecovery(records);
+				}
+
+				CommitLogRecord record = CommitLogRecord.decode(bytes, segment.position(),
+										length - SEQ_SIZE);
+				segment.position(segment.position() + length - SEQ_SIZE);
+
+				nextSeq = seq + 1;
+				track(record);
+				records.add(record);
+			}
+		}
+
+		return finishRecovery(records);
+	}
+
+	/**
+	 * Appends the records to the log, with one write for each segment they go to.
+	 * A checkpoint is written whenever a new segment is started.
+	 *
+	 * @param records - the records
+	 * @throws IOException - exception when writing
+	 */
+	public synchronized void append(List<CommitLogRecord> records) throws IOException {
+
+		ByteArrayOutputStream frames = new ByteArrayOutputStream();
+
+		for (CommitLogRecord record : records) {
+
+			byte[] content = record.encode();
+			int frameSize = FRAME_HEADER_SIZE + SEQ_SIZE + content.length;
+
+			// start a new segment when the record does not fit
+			// a record larger than a segment gets a segment of its own
+			if (activeSize + frames.size() + frameSize > SEGMENT_SIZE
+			    && activeSize + frames.size() > 0) {
+				write(frames);
+				rollSegment();
+			}
+
+			// frame the record
+			ByteBuffer frame = ByteBuffer.allocate(frameSize);
+			frame.putInt(SEQ_SIZE + content.length).putInt(0).putLong(nextSeq ++).put(content);
+			CRC32 checksum = new CRC32();
+			checksum.update(frame.array(), FRAME_HEADER_SIZE, SEQ_SIZE + content.length);
+			frame.putInt(Integer.BYTES, (int) checksum.getValue());
+			frames.write(frame.array(), 0, frameSize);
+
+			track(record);
+		}
+		write(frames);
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Helpers   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Finishes the recovery by opening a new segment after the last one for the next records,
+	 * which also checkpoints the recovered commits.
+	 *
+	 * @param records - the recovered records
+	 * @return records - the recovered records
+	 * @throws IOException - exception when opening the segment
+	 */
+	private List<CommitLogRecord> finishRecovery(List<CommitLogRecord> records)
+		throws IOException {
+		activeSegmentId = lastSegmentId;
+		rollSegment();
+		return records;
+	}
+
+	/**
+	 * Keeps track of the records of the commits that are not DONE.
+	 *
+	 * @param record - the record
+	 */
+	private void track(CommitLogRecord record) {
+
+		String fileName = record.getFileName();
+
+		if (record.getType().equals(CommitLogRecord.RecordType.DONE)) {
+			inFlight.remove(fileName);
+			return;
+		}
+
+		inFlight.computeIfAbsent(fileName, name -> new ArrayList<>(2)).add(record);
+	}
+
+	/**
+	 * Loads the last checkpoint, if there is one.
+	 *
+	 * @param records - the list the records of the checkpoint are added to
+	 * @return segmentId - the first segment to replay after the checkpoint
+	 * @throws IOException - if the checkpoint cannot be read
+	 */
+	private long readCheckpoint(List<CommitLogRecord> records) throws IOException {
+
+		File checkpointFile = new File(logDir, CHECKPOINT_FNAME);
+		if (!checkpointFile.exists()) {
+			return 0;
+		}
+
+		// the checkpoint is replaced by an atomic rename, so it is never torn
+		byte[] bytes = Files.readAllBytes(checkpointFile.toPath());
+		ByteBuffer checkpoint = ByteBuffer.wrap(bytes);
+		CRC32 checksum = new CRC32();
+		checksum.update(bytes, Integer.BYTES, bytes.length - Integer.BYTES);
+		if (checkpoint.getInt() != (int) checksum.getValue()
+		    || checkpoint.getInt() != CHECKPOINT_VERSION) {
+			throw new IOException("Corrupted commit log checkpoint " + checkpointFile);
+		}
+
+		long segmentId = checkpoint.getLong();
+		nextSeq = checkpoint.getLong();
+		int numRecords = checkpoint.getInt();
+
+		for (int i = 0; i < numRecords; i ++) {
+			int length = checkpoint.getInt();
+			CommitLogRecord record = CommitLogRecord.decode(bytes, checkpoint.position(), length);
+			checkpoint.position(checkpoint.position() + length);
+			track(record);
+			records.add(record);
+		}
+
+		lastSegmentId = segmentId - 1;
+		return segmentId;
+	}
+
+	/**
+	 * Writes the records of the commits that are not DONE as the new checkpoint, to replay
+	 * from the active segment, and deletes all the older segments.
+	 * The checkpoint is written to a temporary file first and renamed over the old one.
+	 *
+	 * @throws IOException - exception when writing
+	 */
+	private void writeCheckpoint() throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		// checksum, filled in below
+		out.writeInt(0);
+		out.writeInt(CHECKPOINT_VERSION);
+		out.writeLong(activeSegmentId);
+		out.writeLong(nextSeq);
+
+		int numRecords = 0;
+		for (List<CommitLogRecord> commitRecords : inFlight.values()) {
+			numRecords += commitRecords.size();
+		}
+		out.writeInt(numRecords);
+		for (List<CommitLogRecord> commitRecords : inFlight.values()) {
+			for (CommitLogRecord record : commitRecords) {
+				byte[] content = record.encode();
+				out.writeInt(content.length);
+				out.write(content);
+			}
+		}
+		out.flush();
+
+		ByteBuffer checkpoint = ByteBuffer.wrap(bytes.toByteArray());
+		CRC32 checksum = new CRC32();
+		checksum.update(checkpoint.array(), Integer.BYTES, checkpoint.limit() - Integer.BYTES);
+		checkpoint.putInt(0, (int) checksum.getValue());
+
+		File tmpFile = new File(logDir, CHECKPOINT_FNAME + TMP_SUFFIX);
+		try (FileChannel channel = FileChannel.open(tmpFile.toPath(),
+							    StandardOpenOption.CREATE,
+							    StandardOpenOption.TRUNCATE_EXISTING,
+							    StandardOpenOption.WRITE)) {
+			while (checkpoint.hasRemaining()) {
+				channel.write(checkpoint);
+			}
+		}
+		Files.move(tmpFile.toPath(), new File(logDir, CHECKPOINT_FNAME).toPath(),
+			   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		// the older segments are covered by the checkpoint
+		for (long segmentId : listSegments()) {
+			if (segmentId < activeSegmentId) {
+				getSegmentFile(segmentId).delete();
+			}
+		}
+	}
+
+	/**
+	 * Closes the active segment, opens the next one and checkpoints the log at its start.
+	 *
+	 * @throws IOException - exception when opening the segment
+	 */
+	private void rollSegment() throws IOException {
+
+		if (activeSegment != null) {
+			activeSegment.close();
+		}
+
+		activeSegmentId ++;
+		activeSegment = FileChannel.open(getSegmentFile(activeSegmentId).toPath(),
+						 StandardOpenOption.CREATE_NEW,
+						 StandardOpenOption.WRITE);
+		activeSize = 0;
+
+		writeCheckpoint();
+	}
+
+	/**
+	 * Writes the framed records to the active segment with one write, and clears them.
+	 *
+	 * @param frames - the framed records
+	 * @throws IOException - exception when writing
+	 */
+	private void write(ByteArrayOutputStream frames) throws IOException {
+
+		if (frames.size() == 0) {
+			return;
+		}
+
+		ByteBuffer bytes = ByteBuffer.wrap(frames.toByteArray());
+		activeSize += bytes.remaining();
+		while (bytes.hasRemaining()) {
+			activeSegment.write(bytes);
+		}
+		frames.reset();
+	}
+
+	/**
+	 * Lists the IDs of the segments in the log directory, in increasing order.
+	 *
+	 * @return segmentIds - the segment IDs
+	 */
+	private List<Long> listSegments() {
+
+		List<Long> segmentIds = new ArrayList<>();
+		File[] files = logDir.listFiles();
+		if (files == null) {
+			return segmentIds;
+		}
+
+		for (File file : files) {
+			String name = file.getName();
+			if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+				String id = name.substring(SEGMENT_PREFIX.length(),
+							   name.length() - SEGMENT_SUFFIX.length());
+				try {
+					segmentIds.add(Long.parseLong(id));
+				} catch (NumberFormatException e) {
+					// ignore other files
+				}
+			}
+		}
+
+		segmentIds.sort(null);
+		return segmentIds;
+	}
+
+	/**
+	 * Gets the file of the segment.
+	 *
+	 * @param segmentId - the segment ID
+	 * @return file - the segment file
+	 */
+	private File getSegmentFile(long segmentId) {
+		return new File(logDir, String.format("%s%020d%s", SEGMENT_PREFIX, segmentId,
+						      SEGMENT_SUFFIX));
+	}
+
+}
@@ -0,0 +1,185 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ *
+ * @file CommitLogRecord.java
+ *
+ * This class represents a record of the Server's commit log.
+ *
+ * A commit logs three records : BEGIN with its sources when Phase I starts, DECISION with
+ * the commit decision when Phase II starts, and DONE once all the ACKs have arrived.
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class CommitLogRecord {
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private static final RecordType[] RECORD_TYPES = RecordType.values();
+	private static final CommitDecision[] DECISIONS = CommitDecision.values();
+
+	/**
+	 * The type of a record of the commit log.
+	 */
+	public enum RecordType {
+
+		// the commit information, logged when Phase I starts
+		BEGIN,
+
+		// the commit decision, logged when Phase II starts
+		DECISION,
+
+		// the end of the commit
+		DONE;
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------   Instance Variables   ----------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private final RecordType type;
+	// commit file name
+	private final String fileName;
+	// the sources of a BEGIN record
+	private final String[] sources;
+	// the decision of a DECISION record
+	private final CommitDecision decision;
+
+
+	/* -------------------------------------------------------------------- */
+	/* -------------------------   Constructor   -------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private CommitLogRecord(RecordType type, String fileName, String[] sources,
+				CommitDecision decision) {
+		this.type = type;
+		this.fileName = fileName;
+		this.sources = sources;
+		this.decision = decision;
+	}
+
+	/**
+	 * Creates the record of the commit information, logged when Phase I starts.
+	 *
+	 * @param commitInfo - the commit information
+	 * @return record - the BEGIN record
+	 */
+	public static CommitLogRecord begin(CommitInfo commitInfo) {
+		return new CommitLogRecord(RecordType.BEGIN, commitInfo.getFileName(),
+					   commitInfo.getSources(), null);
+	}
+
+	/**
+	 * Creates the record of the commit decision, logged when Phase II starts.
+	 *
+	 * @param fileName - commit file name
+	 * @param decision - the commit decision
+	 * @return record - the DECISION record
+	 */
+	public static CommitLogRecord decision(String fileName, CommitDecision decision) {
+		return new CommitLogRecord(RecordType.DECISION, fileName, null, decision);
+	}
+
+	/**
+	 * Creates the record of the end of the commit.
+	 *
+	 * @param fileName - commit file name
+	 * @return record - the DONE record
+	 */
+	public static CommitLogRecord done(String fileName) {
+		return new CommitLogRecord(RecordType.DONE, fileName, null, null);
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Encodes the content of the record.
+	 *
+	 * @return bytes - the encoded record
+	 */
+	public byte[] encode() {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(type.ordinal());
+			out.writeUTF(fileName);
+			if (type.equals(RecordType.BEGIN)) {
+				out.writeInt(sources.length);
+				for (String source : sources) {
+					out.writeUTF(source);
+				}
+			}
+			else if (type.equals(RecordType.DECISION)) {
+				out.writeByte(decision.ordinal());
+			}
+		} catch (IOException e) {
+			// never thrown by a byte array stream
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes the content of a record.
+	 *
+	 * @param bytes - the array holding the encoded record
+	 * @param offset - the offset of the record in the array
+	 * @param length - the length of the record
+	 * @return record - the record
+	 * @throws IOException - if the bytes are not a valid record
+	 */
+	public static CommitLogRecord decode(byte[] bytes, int offset, int length) throws IOException {
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+		RecordType type = RECORD_TYPES[in.readUnsignedByte()];
+		String fileName = in.readUTF();
+
+		if (type.equals(RecordType.BEGIN)) {
+			String[] sources = new String[in.readInt()];
+			for (int i = 0; i < sources.length; i ++) {
+				sources[i] = in.readUTF();
+			}
+			return new CommitLogRecord(type, fileName, sources, null);
+		}
+		else if (type.equals(RecordType.DECISION)) {
+			return new CommitLogRecord(type, fileName, null, DECISIONS[in.readUnsignedByte()]);
+		}
+		else {
+			return new CommitLogRecord(type, fileName, null, null);
+		}
+	}
+
+
+	/* ---------------------------------------------------------------- */
+	/* --------------------------   Getters   ------------------------- */
+	/* ---------------------------------------------------------------- */
+
+	public RecordType getType() {
+		return type;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public String[] getSources() {
+		return sources;
+	}
+
+	public CommitDecision getDecision() {
+		return decision;
+	}
+
+}
@@ -0,0 +1,29 @@
+
+/**
+ *
+ * @file CommitPhase.java
+ *
+ * A type class representing the state of a commit process on the Server.
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public enum CommitPhase {
+
+	// the commit process has not started
+	INIT,
+
+	// commit queries sent, waiting for the commit agreements
+	PHASE_ONE,
+
+	// commit decisions sent, waiting for the ACKs
+	PHASE_TWO,
+
+	// waiting for a log record to be durable before the next step
+	LOGGING,
+
+	// all ACKs received and the end of the commit logged
+	DONE;
+
+}
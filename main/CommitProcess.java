@@ -1,9 +1,11 @@
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 
@@ -13,6 +15,14 @@ import java.util.concurrent.TimeUnit;
  * The class has three subclasses that represent different commit processes that
  * start from different states.
  * 
+ * A commit process is a state machine driven by the CommitEngine. It never blocks to wait
+ * for the User Nodes; it reacts to their messages and to its time out events instead.
+ * 
+ * All the messages of a commit go through a single lock-free mailbox. The messages that do
+ * not belong to the current phase, such as the votes that arrive after an early abort, are
+ * dropped when the mailbox is drained, and the votes and ACKs still expected are counted
+ * per phase.
+ * 
  * @author YanningMao <yanningm@andrew.cmu.edu>
  * @date April 27, 2018
  *
@@ -24,31 +34,65 @@ public class CommitProcess implements Runnable {
 	/* --------------------------   Constants   --------------------------- */
 	/* -------------------------------------------------------------------- */
 	
+	// the time out of the User Nodes whose round-trip time is not known yet
 	protected static final long TIME_OUT_MILLIS = 6000;
 	protected static final String COMMA = ",";
 	protected static final String COLON = ":";
 	protected static final String CURR_DIR = ".";
 	protected static final String LOG_DIR = "log";
 
-	protected static final String PHASE_ONE_STR = "Phase One";
-	protected static final String PHASE_TWO_STR = "Phase Two";
-	protected static final String DONE_STR = "DONE";
 
 
 	/* -------------------------------------------------------------------- */
 	/* ---------------------   Instance Variables   ----------------------- */
 	/* -------------------------------------------------------------------- */
 	
-	protected ProjectLib PL;
+	// sends the messages to the User Nodes in batches
+	protected MessageBatcher outbox;
+	// the engine that runs the events of the commit
+	protected CommitEngine engine;
+	// makes the log records of the commit durable
+	protected GroupCommit<CommitLogRecord> groupCommit;
 	// the commit information
 	protected CommitInfo commitInfo;
-	// the commit image
-	protected byte[] imgBytes;
+	// the commit image, shared by all the commit queries
+	protected ImageBuffer img;
+	
+	// contains the messages from the User Nodes not handled yet
+	private final Queue<MessageContent> mailbox;
+	// whether a drain of the mailbox is already scheduled on the engine
+	private final AtomicBoolean drainScheduled;
+	
+	// the current phase of the commit
+	protected CommitPhase phase;
+	// the commit decision distributed in Phase II
+	protected CommitDecision commitDecision;
+	// the commit decision packed once for all User Nodes in Phase II, kept for the re-sends
+	private byte[] decision;
 	
-	// contains blocked commit agreement messages from the User Nodes
-	protected BlockingQueue<MessageContent> agreementMessages;
-	// contains blocked commit ACK messages from the User Nodes
-	protected BlockingQueue<MessageContent> ackMessages;
+	// User Nodes that agreed and denied to commit, by their interned IDs
+	protected BitSet approvals;
+	protected BitSet denials;
+	// User Nodes that replied ACK, by their interned IDs
+	protected BitSet usersReplied;
+	// the agreements still expected in Phase I and the ACKs still expected in Phase II
+	protected int votesPending;
+	protected int acksPending;
+	
+	// the absolute deadline of Phase I, in the time of System.nanoTime
+	private long phaseDeadline;
+	// the pending time out event of the Phase I deadline
+	private HashedWheelTimer.Timeout timeout;
+	// the pending re-send event of each User Node that has not replied ACK in Phase II
+	private Map<String, HashedWheelTimer.Timeout> resendTimeouts;
+	// the number of re-sends to each User Node since it was last heard from
+	private Map<String, Integer> resendAttempts;
+	// the time of the last re-send to each User Node
+	private Map<String, Long> lastResentAt;
+	// the time the last message was sent to each User Node, unless it was re-sent
+	private Map<String, Long> sentAt;
+	// completes when the commit process is done
+	private final CompletableFuture<Void> completion;
 
 	
 	/* -------------------------------------------------------------------- */
@@ -58,205 +102,397 @@ public class CommitProcess implements Runnable {
 	/**
 	 * Constructs the CommitProcess.
 	 * 
-	 * @param PL - the ProjectLib object
+	 * @param outbox - the batcher of the messages to the User Nodes
+	 * @param engine - the commit engine
+	 * @param groupCommit - the group commit of the log records
 	 * @param commitInfo - the commit information
 	 */
-	public CommitProcess(ProjectLib PL, CommitInfo commitInfo) {
-		this.PL = PL;
+	public CommitProcess(MessageBatcher outbox, CommitEngine engine,
+			     GroupCommit<CommitLogRecord> groupCommit,
+			     CommitInfo commitInfo) {
+		this.outbox = outbox;
+		this.engine = engine;
+		this.groupCommit = groupCommit;
 		this.commitInfo = commitInfo;
 		
-		agreementMessages = new LinkedBlockingQueue<>();
-		ackMessages = new LinkedBlockingQueue<>();
+		mailbox = new ConcurrentLinkedQueue<>();
+		drainScheduled = new AtomicBoolean(false);
 		
+		phase = CommitPhase.INIT;
+		approvals = new BitSet();
+		denials = new BitSet();
+		usersReplied = new BitSet();
+		resendTimeouts = new HashMap<>();
+		resendAttempts = new HashMap<>();
+		lastResentAt = new HashMap<>();
+		sentAt = new HashMap<>();
+		completion = new CompletableFuture<>();
 	}
 	
 	/**
 	 * This method is called by the Server to redirect messages to the commit processes they belong.
-	 * It takes in a message, and puts it into the corresponding message queue.
+	 * It takes in a message, puts it into the mailbox, and schedules the commit process to
+	 * handle the messages in the mailbox, unless a drain is already scheduled.
+	 * It never takes a lock, so the delivery thread is never blocked by the commit.
 	 * 
 	 * @param msgContent - message from user
-	 * @throws InterruptedException
 	 */
-	public synchronized void receiveMessage(MessageContent msgContent) throws InterruptedException {
+	public void receiveMessage(MessageContent msgContent) {
 		
-		if (msgContent.getMessageType().equals(MessageType.COMMIT_AGREEMENT)) {
-			agreementMessages.put(msgContent);
-		}
-		else if (msgContent.getMessageType().equals(MessageType.COMMIT_ACK)) {
-			ackMessages.add(msgContent);
-		}
-		else {
+		if (!msgContent.getMessageType().equals(MessageType.COMMIT_AGREEMENT)
+		    && !msgContent.getMessageType().equals(MessageType.COMMIT_ACK)) {
 			System.err.println(">>> Server received unrecognized message : ");
 			System.err.println(msgContent);
+			return;
+		}
+		mailbox.add(msgContent);
+		
+		if (drainScheduled.compareAndSet(false, true)) {
+			engine.execute(this::drainMessages);
 		}
 	}
 	
 	/**
-	 * Receives the commit agreement messages from the User Nodes.
-	 * This method polls the commit agreement messages added to the agreement queue.
-	 * It waits for all the commit agreement messages to arrive, until time out.
-	 * 
-	 * @return commitDecision - the decision for the commit request
+	 * Drains the mailbox on the engine. The drain is marked as done before the mailbox is
+	 * read, so a message added during the drain schedules the next one.
 	 */
-	protected CommitDecision receiveAgreementMessage() {
-
-		int numUsers = commitInfo.getUsers().size();
-		Set<String> approvals = new HashSet<>();
-		Set<String> denials = new HashSet<>();
-		
-		// keep track of whether time out
-		long initTime = System.currentTimeMillis();
-		long currTime = System.currentTimeMillis();
-		
-		// poll agreement messages
-		while (approvals.size() + denials.size() < numUsers) {
-			MessageContent msgContent;
-			// poll the message
-			try {
-				synchronized (agreementMessages) {
-					msgContent = agreementMessages.poll(TIME_OUT_MILLIS,
-									    TimeUnit.MILLISECONDS);
-				}
-				currTime = System.currentTimeMillis();
-			} catch (InterruptedException e) {
-				msgContent = null;
-				currTime = System.currentTimeMillis();
-			}
+	private void drainMessages() {
+		drainScheduled.set(false);
+		processMessages();
+	}
+	
+	/**
+	 * Handles the messages in the mailbox. The agreements are taken in Phase I and the ACKs
+	 * in Phase II, and all the other messages are dropped, as they are late or duplicated.
+	 */
+	protected synchronized void processMessages() {
+		
+		MessageContent msgContent;
+		while ((msgContent = mailbox.poll()) != null) {
 			
-			// message times out
-			if (msgContent == null) {
-				return CommitDecision.ABORT;
+			MessageType msgType = msgContent.getMessageType();
+			if (phase.equals(CommitPhase.PHASE_ONE) && msgType.equals(MessageType.COMMIT_AGREEMENT)) {
+				takeAgreement(msgContent);
 			}
-			else if (currTime - initTime > TIME_OUT_MILLIS) {
-				return CommitDecision.ABORT;
+			else if (phase.equals(CommitPhase.PHASE_TWO) && msgType.equals(MessageType.COMMIT_ACK)) {
+				takeACK(msgContent);
 			}
 			else {
-				if (msgContent.getAgreement()) {
-					approvals.add(msgContent.getSender());
-				}
-				else {
-					denials.add(msgContent.getSender());
-				}
+				// a reply to an earlier message, so no round-trip time sample
+				engine.getRttEstimator().heardFrom(msgContent.getSender());
 			}
 		}
 		
-		// return commit decision
-		if (denials.size() == 0) {
-			return CommitDecision.YES;
+		if (phase.equals(CommitPhase.PHASE_ONE)) {
+			receiveAgreementMessage();
+		}
+		else if (phase.equals(CommitPhase.PHASE_TWO)) {
+			receiveACKMessages();
+		}
+	}
+	
+	/**
+	 * Takes the commit agreement message of a User Node in Phase I.
+	 * 
+	 * @param msgContent - the commit agreement message
+	 */
+	private void takeAgreement(MessageContent msgContent) {
+		
+		String userAddr = msgContent.getSender();
+		int userId = NodeIds.lookup(userAddr);
+		if (!commitInfo.hasUser(userId) || approvals.get(userId) || denials.get(userId)) {
+			return;
+		}
+		
+		// a vote forced by the deadline of the user or past the deadline of Phase I measures
+		// the deadline rather than the round trip, and would shorten the next time out
+		if (msgContent.getAskTimedOut() || System.nanoTime() - phaseDeadline >= 0) {
+			engine.getRttEstimator().heardFrom(userAddr);
+			sentAt.remove(userAddr);
 		}
 		else {
-			return CommitDecision.NO;
+			takeRttSample(userAddr);
+		}
+		if (msgContent.getAgreement()) {
+			approvals.set(userId);
 		}
+		else {
+			denials.set(userId);
+		}
+		votesPending --;
 	}
 	
 	/**
-	 * Receives the commit ACK messages from the User Nodes.
-	 * This method polls the commit ACK messages added to the ACK queue.
-	 * It waits for all the commit ACK messages to arrive, until time out.
+	 * Takes the commit ACK message of a User Node in Phase II.
 	 * 
-	 * @return set - the set of User Nodes that replied ACK
+	 * @param msgContent - the commit ACK message
 	 */
-	protected Set<String> receiveACKMessages() {
+	private void takeACK(MessageContent msgContent) {
 		
-		int numUsers = commitInfo.getUsers().size();
-		Set<String> usersReplied = new HashSet<>();
+		String userAddr = msgContent.getSender();
+		int userId = NodeIds.lookup(userAddr);
+		if (!commitInfo.hasUser(userId) || usersReplied.get(userId)) {
+			return;
+		}
+		usersReplied.set(userId);
 		
-		// track the time
-		long initTime = System.currentTimeMillis();
-		long currTime = System.currentTimeMillis();
+		takeRttSample(userAddr);
+		acksPending --;
 		
-		while (usersReplied.size() < numUsers) {
-
-			MessageContent msgContent;
-			// poll the message
-			try {
-				synchronized (ackMessages) {
-					msgContent = ackMessages.poll(TIME_OUT_MILLIS,
-								      TimeUnit.MILLISECONDS);
-				}
-				currTime = System.currentTimeMillis();
-			} catch (InterruptedException e) {
-				msgContent = null;
-				currTime = System.currentTimeMillis();
-			}
-			
-			// if times out
-			if (msgContent == null || (currTime - initTime) > TIME_OUT_MILLIS) {
-				break;
-			}
-			else {
-				usersReplied.add(msgContent.getSender());
-			}
+		// stop re-sending to the User Node
+		HashedWheelTimer.Timeout resendTimeout = resendTimeouts.remove(userAddr);
+		if (resendTimeout != null) {
+			resendTimeout.cancel();
+		}
+	}
+	
+	/**
+	 * Decides Phase I from the commit agreements taken so far.
+	 * It ends Phase I with NO as soon as a User Node denies, and with YES once all
+	 * the User Nodes have agreed.
+	 */
+	protected void receiveAgreementMessage() {
+		
+		// abort as soon as any User Node denies, without waiting for the slower ones
+		if (!denials.isEmpty()) {
+			endPhaseOne(CommitDecision.NO);
+			return;
+		}
+		
+		// wait for the other agreement messages
+		if (votesPending > 0) {
+			return;
+		}
+		
+		// end Phase I with the commit decision
+		endPhaseOne(CommitDecision.YES);
+	}
+	
+	/**
+	 * Finishes the commit once the commit ACK messages of all the User Nodes have been taken.
+	 */
+	protected void receiveACKMessages() {
+		
+		// wait for the other ACK messages
+		if (acksPending > 0) {
+			return;
 		}
 		
-		return usersReplied;
+		finish();
+	}
+	
+	/**
+	 * Handles the time out of Phase I. The commit is aborted if any commit agreement
+	 * message has not arrived.
+	 */
+	private synchronized void phaseOneTimeout() {
+		
+		// ignore the time outs of past phases and past deadlines
+		if (!phase.equals(CommitPhase.PHASE_ONE) || System.nanoTime() - phaseDeadline < 0) {
+			return;
+		}
+		endPhaseOne(CommitDecision.ABORT);
 	}
 	
 	/**
-	 * Sends the commit message to the specified user with the agreement information.
+	 * Handles the time out of a User Node in Phase II. Re-sends the commit decision to the
+	 * User Node if it has not replied ACK, and waits for another, longer time out.
+	 * The backoff starts over if the User Node has been heard from since the last re-send.
 	 * 
-	 * @param agreement - whether to commit
-	 * @param userAddr - the user ID
+	 * @param userAddr - the User Node
 	 */
-	protected void sendCommitMessageToUser(boolean agreement, String userAddr) {
+	private synchronized void resendTimeout(String userAddr) {
 		
-		// set content of the commit message
-		MessageContent msgContent = new MessageContent(commitInfo.getFileName(),
-								MessageType.COMMIT_MSG,
-								"Server", userAddr);
-		msgContent.setFiles(commitInfo.getFilesFromUser(userAddr));
-		msgContent.setAgreement(agreement);
+		// ignore the time outs of past phases and of User Nodes that replied
+		if (!phase.equals(CommitPhase.PHASE_TWO) || usersReplied.get(NodeIds.lookup(userAddr))) {
+			return;
+		}
 		
-		// convert the message
-		byte[] msgBytes = MessageConvert.packMessage(msgContent);
-		ProjectLib.Message msg = new ProjectLib.Message(userAddr, msgBytes);
+		// back off, unless the User Node is back
+		Long lastHeard = engine.getRttEstimator().getLastHeardNanos(userAddr);
+		Long lastResent = lastResentAt.get(userAddr);
+		if (lastHeard != null && lastResent != null && lastHeard - lastResent > 0) {
+			resendAttempts.put(userAddr, 0);
+		}
+		else {
+			resendAttempts.merge(userAddr, 1, Integer::sum);
+		}
+		lastResentAt.put(userAddr, System.nanoTime());
 		
-		// send the message
-		PL.sendMessage(msg);
+		// the reply to a re-sent message gives no round-trip time sample
+		sentAt.remove(userAddr);
+		sendCommitDecisionToUser(userAddr);
+		scheduleResend(userAddr);
+	}
+	
+	/**
+	 * Ends Phase I with the commit decision.
+	 * 
+	 * @param commitDecision - the commit decision
+	 */
+	private void endPhaseOne(CommitDecision commitDecision) {
+		cancelTimeout();
+		phase = CommitPhase.LOGGING;
+		phaseOneDecided(commitDecision);
 	}
 	
 	/**
-	 * Sends the commit message to all users.
+	 * Logs the record, and continues the commit with the next step once the record is
+	 * durable. The commit does not wait for the fsync on a thread of the engine.
+	 * If the record cannot be made durable, the commit never takes the next step, and
+	 * takes the failure step instead.
 	 * 
-	 * @param agreement - whether to commit
+	 * @param record - the log record
+	 * @param next - the next step of the commit
+	 * @param onFailure - the step of the commit if the record is not durable
 	 */
-	protected void sendCommitMessageToAll(boolean agreement) {
+	protected void logThen(CommitLogRecord record, Runnable next, Runnable onFailure) {
+		whenDone(groupCommit.log(record), next, onFailure);
+	}
+	
+	/**
+	 * Continues the commit with the next step once the future completes, or stops the
+	 * commit if the future fails.
+	 * 
+	 * @param future - the future to wait for
+	 * @param next - the next step of the commit
+	 */
+	protected void whenDone(CompletableFuture<?> future, Runnable next) {
+		whenDone(future, next, this::stop);
+	}
+	
+	/**
+	 * Continues the commit with the next step once the future completes, or with the
+	 * failure step if the future fails.
+	 * 
+	 * @param future - the future to wait for
+	 * @param next - the next step of the commit
+	 * @param onFailure - the step of the commit if the future fails
+	 */
+	protected void whenDone(CompletableFuture<?> future, Runnable next, Runnable onFailure) {
+		future.whenComplete((result, error) ->
+			engine.execute(() -> step(error == null ? next : onFailure)));
+	}
+	
+	/**
+	 * Runs a step of the commit.
+	 * 
+	 * @param next - the step
+	 */
+	private synchronized void step(Runnable next) {
+		next.run();
+	}
+	
+	/**
+	 * Gets the time out of Phase I, which is the longest Phase I time out of the User Nodes
+	 * of the commit, as estimated from the round-trip times of their votes. The time out is
+	 * never shorter than the time the users have to answer.
+	 * 
+	 * @return timeOut - the time out in nanoseconds
+	 */
+	private long getPhaseOneTimeOutNanos() {
 		
+		long timeOutNanos = TimeUnit.MILLISECONDS.toNanos(UserNode.ASK_USER_DEADLINE_MILLIS);
 		for (String userAddr : commitInfo.getUsers()) {
-			sendCommitMessageToUser(agreement, userAddr);
+			timeOutNanos = Math.max(timeOutNanos,
+						engine.getRttEstimator().getTimeOutNanos(userAddr, CommitPhase.PHASE_ONE));
 		}
-
+		return timeOutNanos;
 	}
 	
 	/**
-	 * Sends the commit abort message to the specified user.
+	 * Sets the deadline of Phase I, and schedules its time out event at the deadline.
 	 * 
-	 * @param userAddr - the user ID
+	 * @param timeOutNanos - the time out of Phase I
 	 */
-	protected void sendCommitAbortToUser(String userAddr) {
-		
-		// set content of the commit message
-		MessageContent msgContent = new MessageContent(commitInfo.getFileName(),
-								MessageType.COMMIT_ABORT,
-								"Server", userAddr);
-		msgContent.setFiles(commitInfo.getFilesFromUser(userAddr));
-		
-		// convert the message
-		byte[] msgBytes = MessageConvert.packMessage(msgContent);
-		ProjectLib.Message msg = new ProjectLib.Message(userAddr, msgBytes);
+	private void schedulePhaseOneTimeout(long timeOutNanos) {
 		
-		// send the message
-		PL.sendMessage(msg);
+		phaseDeadline = System.nanoTime() + timeOutNanos;
+		timeout = engine.schedule(this::phaseOneTimeout, phaseDeadline);
+	}
+	
+	/**
+	 * Schedules the re-send of the commit decision to the User Node after its time out, as
+	 * estimated from its round-trip time, backed off by the re-sends not answered so far.
+	 * 
+	 * @param userAddr - the User Node
+	 */
+	private void scheduleResend(String userAddr) {
+		int attempt = resendAttempts.getOrDefault(userAddr, 0);
+		long deadline = System.nanoTime()
+				+ engine.getRttEstimator().getResendDelayNanos(userAddr, attempt);
+		resendTimeouts.put(userAddr, engine.schedule(() -> resendTimeout(userAddr), deadline));
+	}
+	
+	/**
+	 * Records that a message has just been sent to each of the User Nodes.
+	 */
+	private void markSentToAll() {
+		long now = System.nanoTime();
+		sentAt.clear();
+		for (String userAddr : commitInfo.getUsers()) {
+			sentAt.put(userAddr, now);
+		}
+	}
+	
+	/**
+	 * Records that the reply of the User Node just arrived, and takes its round-trip time
+	 * sample if the message it replied to was not re-sent.
+	 * 
+	 * @param userAddr - the User Node
+	 */
+	private void takeRttSample(String userAddr) {
+		engine.getRttEstimator().heardFrom(userAddr);
+		Long sent = sentAt.remove(userAddr);
+		if (sent != null) {
+			engine.getRttEstimator().sample(userAddr, phase, System.nanoTime() - sent);
+		}
+	}
+	
+	/**
+	 * Cancels the pending time out event, if any.
+	 */
+	private void cancelTimeout() {
+		if (timeout != null) {
+			timeout.cancel();
+			timeout = null;
+		}
+	}
+	
+	/**
+	 * Sends the commit decision of this commit to the specified user.
+	 * 
+	 * @param userAddr - the user ID
+	 */
+	protected void sendCommitDecisionToUser(String userAddr) {
 		
+		// send the decision packed for all users
+		outbox.send(userAddr, decision);
 	}
 	
 	/**
-	 * Sends the commit abort message to all User Nodes.
+	 * Sends the commit decision to all User Nodes.
+	 * The decision is packed once for all User Nodes, and the same bytes are kept for the
+	 * re-sends.
 	 */
-	protected void sendCommitAbortToAll() {
+	protected void sendCommitDecisionToAll() {
+		
+		// if times out, send commit abort
+		MessageContent msgContent;
+		if (commitDecision.equals(CommitDecision.ABORT)) {
+			msgContent = new MessageContent(commitInfo.getFileName(), MessageType.COMMIT_ABORT,
+							"Server", null);
+		}
+		// if commit approved or denied, send commit message with the agreement
+		else {
+			msgContent = new MessageContent(commitInfo.getFileName(), MessageType.COMMIT_MSG,
+							"Server", null);
+			msgContent.setAgreement(commitDecision.equals(CommitDecision.YES));
+		}
+		decision = MessageConvert.packShared(msgContent, commitInfo.getRecipients());
 		
 		for (String userAddr : commitInfo.getUsers()) {
-			sendCommitAbortToUser(userAddr);
+			sendCommitDecisionToUser(userAddr);
 		}
 	}
 	
@@ -264,121 +500,181 @@ public class CommitProcess implements Runnable {
 	 * Sends the commit query to the specified User Node.
 	 * 
 	 * @param userAddr - the user ID
+	 * @param query - the commit query packed once for all User Nodes
 	 */
-	protected void sendCommitQueryToUser(String userAddr) {
+	protected void sendCommitQueryToUser(String userAddr, byte[] query) {
 		
-		// set the content of the message
-		MessageContent msgContent = new MessageContent(commitInfo.getFileName(),
-								MessageType.COMMIT_QUERY,
-								"Server", userAddr);
-		
-		List<String> files = commitInfo.getFilesFromUser(userAddr);
-		msgContent.setFiles(files.toArray(new String[files.size()]));
-							
-		msgContent.setImg(imgBytes);
-							
-		// convert the message
-		byte[] msgBytes = MessageConvert.packMessage(msgContent);
-		ProjectLib.Message msg = new ProjectLib.Message(userAddr, msgBytes);
-							
 		// send the message
-		PL.sendMessage(msg);
+		outbox.send(userAddr, query);
 		
 	}
 	
 	/**
 	 * Sends the commit queries to all User Nodes.
+	 * The query is packed once with the image and the files of all User Nodes, and the
+	 * same bytes are sent to each of them. The query carries the time out of Phase I, so
+	 * that the User Nodes do not give the users longer to answer.
+	 * 
+	 * @param timeOutNanos - the time out of Phase I
 	 */
-	protected void sendCommitQueriesToAll() {
+	protected void sendCommitQueriesToAll(long timeOutNanos) {
+		
+		// set the shared content of the message
+		MessageContent msgContent = new MessageContent(commitInfo.getFileName(),
+								MessageType.COMMIT_QUERY,
+								"Server", null);
+		msgContent.setImg(img);
+		msgContent.setTimeOutMillis((int) TimeUnit.NANOSECONDS.toMillis(timeOutNanos));
+		byte[] query = MessageConvert.packShared(msgContent, commitInfo.getRecipients());
 		
 		// send commit queries
 		for (String userAddr : commitInfo.getUsers()) {
-			sendCommitQueryToUser(userAddr);
+			sendCommitQueryToUser(userAddr, query);
 		}
 	}
 	
 	/**
-	 * Performs Phase I and returns the commit decision.
-	 * 
-	 * @return commitDecision - the commit decision
+	 * Starts Phase I.
+	 * Sends the commit queries to the User Nodes, and waits for the commit agreements
+	 * until time out.
 	 */
-	protected CommitDecision phaseOne() {
+	protected void phaseOne() {
+
+		phase = CommitPhase.PHASE_ONE;
+		votesPending = commitInfo.getNumUsers();
+		long timeOutNanos = getPhaseOneTimeOutNanos();
 
 		/* ------------------   Distribute Commit Queries   ------------------ */
 		
-		sendCommitQueriesToAll();
+		sendCommitQueriesToAll(timeOutNanos);
+		markSentToAll();
 
 		/* ------------------   Collect Commit Agreements   ------------------ */
 		
-		CommitDecision commitDecision = receiveAgreementMessage();
-		
-		return commitDecision;
+		schedulePhaseOneTimeout(timeOutNanos);
+		receiveAgreementMessage();
 	}
 	
 	/**
-	 * Performs Phase II.
-	 * Sends the commit decision (Yes / No / Abort) the the User Nodes, and continuously
-	 * send until all users reply with ACK.
+	 * Called when Phase I ends with the commit decision. This method is overridden by
+	 * the subclasses that perform Phase I.
+	 * 
+	 * @param commitDecision - the commit decision
+	 */
+	protected void phaseOneDecided(CommitDecision commitDecision) {
+		// overridden by subclasses
+	}
+	
+	/**
+	 * Starts Phase II.
+	 * Sends the commit decision (Yes / No / Abort) the the User Nodes, and re-sends it
+	 * to each User Node on its own time out until it replies with ACK.
 	 * 
 	 * @param commitDecision - the commit decision
 	 */
 	protected void phaseTwo(CommitDecision commitDecision) {
 		
+		this.commitDecision = commitDecision;
+		phase = CommitPhase.PHASE_TWO;
+		acksPending = commitInfo.getNumUsers();
+		
 		/* ------------------   Distribute Commit Decisions   ------------------ */
 
-		// if times out, send commit abort
-		if (commitDecision.equals(CommitDecision.ABORT)) {
-			sendCommitAbortToAll();
-		}
-		// if commit approved
-		else if (commitDecision.equals(CommitDecision.YES)) {
-			sendCommitMessageToAll(true);
-		}
-		// if commit denied
-		else {
-			sendCommitMessageToAll(false);
-		}
+		sendCommitDecisionToAll();
+		markSentToAll();
 		
 		/* ------------------------   Collect All ACKs   ------------------------ */
 		
-		// receive ACK messages
-		Set<String> ackUsers = receiveACKMessages();
-		
-		if (ackUsers.size() == commitInfo.getUsers().size()) {
-			// delete log files and logged image
-			return;
-		}
-		
-		// get users that time out
-		Set<String> timeoutUsers = new HashSet<>();
 		for (String userAddr : commitInfo.getUsers()) {
-			timeoutUsers.add(userAddr);
+			scheduleResend(userAddr);
 		}
-		timeoutUsers.removeAll(ackUsers);
-
-		// continuously send commit decision to time out users
-		while (timeoutUsers.size() != 0) {
-			for (String userAddr : timeoutUsers) {
-
-				// if times out
-				if (commitDecision.equals(CommitDecision.ABORT)) {
-					sendCommitAbortToUser(userAddr);
-				}
-				// if commit approved
-				else if (commitDecision.equals(CommitDecision.YES)) {
-					sendCommitMessageToUser(true, userAddr);
-				}
-				// if commit denied
-				else {
-					sendCommitMessageToUser(false, userAddr);
-				}
-			}
-			timeoutUsers.removeAll(receiveACKMessages());
+		receiveACKMessages();
+	}
+	
+	/**
+	 * Logs the decision of Phase I, and starts Phase II once the decision is durable.
+	 * 
+	 * @param commitDecision - the commit decision
+	 */
+	protected void logDecision(CommitDecision commitDecision) {
+		
+		// the end of the commit is logged once all ACKs arrive
+		logThen(CommitLogRecord.decision(commitInfo.getFileName(), commitDecision),
+			() -> phaseTwo(commitDecision),
+			() -> decisionNotLogged(commitDecision));
+	}
+	
+	/**
+	 * Aborts the commit once its decision could not be logged. The abort is not logged
+	 * either, since the recovery of a commit without a decision aborts it as well.
+	 * This method is overridden by the subclasses that have acted on the decision.
+	 * 
+	 * @param commitDecision - the commit decision that was not logged
+	 */
+	protected void decisionNotLogged(CommitDecision commitDecision) {
+		System.err.println("Cannot log decision " + commitDecision + " of commit "
+				   + commitInfo.getFileName() + ", aborting.");
+		phaseTwo(CommitDecision.ABORT);
+	}
+	
+	/**
+	 * Logs the end of the commit after all users replied with ACK.
+	 */
+	protected void finish() {
+		
+		phase = CommitPhase.LOGGING;
+		
+		// log the end of the commit, the recovery re-sends the decision if it is not durable
+		logThen(CommitLogRecord.done(commitInfo.getFileName()), this::done, this::stop);
+	}
+	
+	/**
+	 * Stops the commit without taking any further step, once a log record it needs could
+	 * not be made durable. What the log holds of the commit is left to the recovery.
+	 */
+	protected void stop() {
+		
+		System.err.println("Cannot log commit " + commitInfo.getFileName() + ", stopping.");
+		cancelTimeout();
+		for (HashedWheelTimer.Timeout resendTimeout : resendTimeouts.values()) {
+			resendTimeout.cancel();
 		}
+		done();
+	}
+	
+	/**
+	 * Ends the commit process, and frees the per-User Node state and any late messages.
+	 */
+	private void done() {
+		phase = CommitPhase.DONE;
+		mailbox.clear();
+		resendTimeouts.clear();
+		resendAttempts.clear();
+		lastResentAt.clear();
+		sentAt.clear();
+		completion.complete(null);
+	}
+	
+	/**
+	 * Gets the commit decision, null until Phase I has decided.
+	 * 
+	 * @return commitDecision - the commit decision
+	 */
+	public CommitDecision getCommitDecision() {
+		return commitDecision;
+	}
+	
+	/**
+	 * Gets the future that completes when the commit process is done.
+	 * 
+	 * @return completion - the completion of the commit
+	 */
+	public CompletableFuture<Void> getCompletion() {
+		return completion;
 	}
 
 	/**
-	 * Runs the commit process. This method is overridden by the subclasses.
+	 * Starts the commit process on the engine. This method is overridden by the subclasses.
 	 */
 	@Override
 	public void run() {
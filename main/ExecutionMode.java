@@ -0,0 +1,95 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ *
+ * @file ExecutionMode.java
+ *
+ * A type class representing the kind of threads that run the commit events on the Server,
+ * the message handlers on the User Nodes, and the message senders of both.
+ *
+ * The mode is chosen with the system property "commit.executor" or the environment variable
+ * COMMIT_EXECUTOR, whose value is either "platform" (the default) or "virtual", so that both
+ * modes can be compared under the same load.
+ *
+ * Virtual threads need a JVM that provides Executors.newVirtualThreadPerTaskExecutor().
+ * On older JVMs the virtual mode falls back to the platform mode. The threads of a platform
+ * pool are all started when the pool is created, so that the first messages do not wait for
+ * them.
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public enum ExecutionMode {
+
+	// a fixed pool of platform threads
+	PLATFORM,
+
+	// a new virtual thread for every task
+	VIRTUAL;
+
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private static final String MODE_PROPERTY = "commit.executor";
+	private static final String MODE_ENV = "COMMIT_EXECUTOR";
+	private static final String VIRTUAL_EXECUTOR_FACTORY = "newVirtualThreadPerTaskExecutor";
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Reads the execution mode from the system property, then from the environment.
+	 *
+	 * @return mode - the configured execution mode, PLATFORM if not configured
+	 */
+	public static ExecutionMode fromConfig() {
+
+		String value = System.getProperty(MODE_PROPERTY);
+		if (value == null) {
+			value = System.getenv(MODE_ENV);
+		}
+		if (value == null) {
+			return PLATFORM;
+		}
+
+		try {
+			return ExecutionMode.valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown execution mode " + value + ", using " + PLATFORM);
+			return PLATFORM;
+		}
+	}
+
+	/**
+	 * Creates the executor that runs the tasks in this mode.
+	 *
+	 * @param numPlatformThreads - the number of threads in the platform pool
+	 * @return executor - the executor
+	 */
+	public ExecutorService newExecutor(int numPlatformThreads) {
+
+		if (this.equals(VIRTUAL)) {
+			try {
+				Method factory = Executors.class.getMethod(VIRTUAL_EXECUTOR_FACTORY);
+				return (ExecutorService) factory.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				System.err.println("Virtual threads are not supported by this JVM, using "
+							+ PLATFORM + " threads.");
+			}
+		}
+
+		ThreadPoolExecutor pool =
+				(ThreadPoolExecutor) Executors.newFixedThreadPool(numPlatformThreads);
+		pool.prestartAllCoreThreads();
+		return pool;
+	}
+
+}
@@ -0,0 +1,153 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ *
+ * @file FanOutBenchmark.java
+ *
+ * This class measures the CPU time and the bytes allocated to pack one commit query for all
+ * the contributors of a commit, packed once per contributor as before and packed once as a
+ * shared message now.
+ *
+ * Usage : java FanOutBenchmark [image MB] [contributors] [rounds]
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class FanOutBenchmark {
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private static final int DEFAULT_IMG_MB = 5;
+	private static final int DEFAULT_NUM_USERS = 50;
+	private static final int DEFAULT_ROUNDS = 20;
+	private static final int FILES_PER_USER = 2;
+	// the rounds run before measuring, to warm up the JIT
+	private static final int WARM_UP_ROUNDS = 5;
+
+	// the thread bean of HotSpot, which counts the bytes allocated by each thread
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	public static void main(String[] args) {
+
+		int imgMB = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_IMG_MB;
+		int numUsers = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NUM_USERS;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_ROUNDS;
+
+		// a commit with an image and the files of each contributor
+		byte[] imgBytes = new byte[imgMB * 1024 * 1024];
+		new Random(0).nextBytes(imgBytes);
+		ImageBuffer img = ImageBuffer.wrap(imgBytes);
+		String[] sources = new String[numUsers * FILES_PER_USER];
+		for (int i = 0; i < sources.length; i ++) {
+			sources[i] = "node" + (i / FILES_PER_USER) + ":" + i + ".jpg";
+		}
+		CommitInfo commitInfo = new CommitInfo("collage.jpg", sources);
+
+		System.out.println("Fan-out of a " + imgMB + " MB commit query to " + numUsers
+				   + " contributors, " + rounds + " rounds");
+
+		for (int i = 0; i < WARM_UP_ROUNDS; i ++) {
+			packPerUser(commitInfo, img);
+			packShared(commitInfo, img);
+		}
+		report("per contributor", measure(() -> packPerUser(commitInfo, img), rounds));
+		report("shared", measure(() -> packShared(commitInfo, img), rounds));
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Helpers   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Packs the query once per contributor, with its receiver and files.
+	 *
+	 * @param commitInfo - the commit information
+	 * @param img - the commit image
+	 * @return numBytes - the bytes packed, so that the packing is not optimized out
+	 */
+	private static long packPerUser(CommitInfo commitInfo, ImageBuffer img) {
+		long numBytes = 0;
+		for (String user : commitInfo.getUsers()) {
+			MessageContent msgContent = new MessageContent(commitInfo.getFileName(),
+									MessageType.COMMIT_QUERY,
+									"Server", user);
+			msgContent.setImg(img);
+			msgContent.setFiles(commitInfo.getFilesFromUser(user));
+			numBytes += MessageConvert.packMessage(msgContent).length;
+		}
+		return numBytes;
+	}
+
+	/**
+	 * Packs the query once for all the contributors, and hands the same bytes to each.
+	 *
+	 * @param commitInfo - the commit information
+	 * @param img - the commit image
+	 * @return numBytes - the bytes handed to the contributors
+	 */
+	private static long packShared(CommitInfo commitInfo, ImageBuffer img) {
+		MessageContent msgContent = new MessageContent(commitInfo.getFileName(),
+								MessageType.COMMIT_QUERY,
+								"Server", null);
+		msgContent.setImg(img);
+		byte[] query = MessageConvert.packShared(msgContent, commitInfo.getRecipients());
+		long numBytes = 0;
+		for (int i = 0; i < commitInfo.getNumUsers(); i ++) {
+			numBytes += query.length;
+		}
+		return numBytes;
+	}
+
+	/**
+	 * Runs the fan-out the given number of rounds on this thread.
+	 *
+	 * @param fanOut - the fan-out
+	 * @param rounds - the number of rounds
+	 * @return costs - the CPU nanoseconds and the allocated bytes per round
+	 */
+	private static long[] measure(FanOut fanOut, int rounds) {
+
+		long threadId = Thread.currentThread().getId();
+		long cpuStart = THREADS.getCurrentThreadCpuTime();
+		long allocStart = THREADS.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < rounds; i ++) {
+			fanOut.run();
+		}
+		long cpuNanos = THREADS.getCurrentThreadCpuTime() - cpuStart;
+		long allocBytes = THREADS.getThreadAllocatedBytes(threadId) - allocStart;
+
+		return new long[] {cpuNanos / rounds, allocBytes / rounds};
+	}
+
+	private static void report(String name, long[] costs) {
+		System.out.printf("%-16s %10.2f ms CPU %12.1f MB allocated per fan-out%n",
+				  name, costs[0] / 1e6, costs[1] / (1024.0 * 1024.0));
+	}
+
+
+	/* ----------------------------   Helper Class   ---------------------------- */
+
+	/**
+	 * A fan-out of the commit query.
+	 *
+	 * @author YanningMao
+	 *
+	 */
+	private interface FanOut {
+		long run();
+	}
+
+}
@@ -1,3 +1,5 @@
+import java.util.concurrent.CompletableFuture;
+
 /**
  * 
  * @file FullCommitProcess.java
@@ -7,7 +9,16 @@
  * then to Phase II.
  * 
  * This class extends the super class CommitProcess that implements the Runnable interface,
- * and overrides the run() method to perform a full commit process.
+ * and overrides the run() method to start a full commit process.
+ * 
+ * An image that may share its bytes with another commit in flight is put into the ImageStore
+ * once the commit queries are sent, while the User Nodes vote, and the commit keeps a handle
+ * on it until the commit decision is made. Only an approved commit waits for the store, to
+ * commit the image from it; a denied or aborted commit goes on at once, and releases the
+ * handle whenever the store is done. Any other image stays in memory until the decision.
+ * 
+ * An approved commit whose image cannot be committed is aborted, since YES is only logged
+ * once the image is in the working directory.
  * 
  * @author YanningMao <yanningm@andrew.cmu.edu>
  * @date April 27, 2018
@@ -15,19 +26,35 @@
  */
 public class FullCommitProcess extends CommitProcess {
 
+	// the store of the commit images
+	private final ImageStore imageStore;
+	// completes with the handle on the stored image, or with null if it is not stored
+	private CompletableFuture<ImageStore.Handle> storedImg;
+	// the length of the image, counted by the store while the commit needs the image
+	private final int imgLength;
+
 	/**
 	 * Constructs a full Two Phase Commit process.
 	 * 
-	 * @param PL - the ProjectLib object
+	 * @param outbox - the batcher of the messages to the User Nodes
+	 * @param engine - the commit engine
+	 * @param groupCommit - the group commit of the log records
 	 * @param commitInfo - the commit information
+	 * @param img - the commit image
+	 * @param imageStore - the store of the commit images
 	 */
-	public FullCommitProcess(ProjectLib PL, CommitInfo commitInfo, byte[] imgBytes) {
-		super(PL, commitInfo);
-		this.imgBytes = imgBytes;
+	public FullCommitProcess(MessageBatcher outbox, CommitEngine engine,
+				 GroupCommit<CommitLogRecord> groupCommit,
+				 CommitInfo commitInfo, ImageBuffer img, ImageStore imageStore) {
+		super(outbox, engine, groupCommit, commitInfo);
+		this.img = img;
+		this.imageStore = imageStore;
+		this.storedImg = CompletableFuture.completedFuture(null);
+		this.imgLength = img.length();
 	}
 
 	/**
-	 * Performs the full commit process from Phase I to Phase II.
+	 * Starts the full commit process from Phase I to Phase II.
 	 * 
 	 * Before commit starts : Logs the commit information on the disk.
 	 * In Phase I : Sends out the commit queries to all UserNodes, then makes a commit decision
@@ -37,40 +64,119 @@ public class FullCommitProcess extends CommitProcess {
 	 * 
 	 */
 	@Override
-	public void run() {
-		
-		// log commit information
-		IOHelper.logCommitInfo(commitInfo);
-		PL.fsync();
+	public synchronized void run() {
 		
 		/* ------------------------   Phase I   ------------------------ */
 		
-		// log the start of Phase I 
-		IOHelper.logPrintln(commitInfo, PHASE_ONE_STR);
-		PL.fsync();
+		// log commit information and the start of Phase I, and start it once durable
+		phase = CommitPhase.LOGGING;
+		// no User Node has been contacted if the record is not durable, so the commit stops
+		logThen(CommitLogRecord.begin(commitInfo), this::phaseOne, this::stop);
+	}
+
+	/**
+	 * Starts Phase I, then moves the image into the image store while the User Nodes vote,
+	 * if another commit in flight may carry the same bytes. The image is kept in memory if
+	 * it is not shared or cannot be stored.
+	 */
+	@Override
+	protected void phaseOne() {
+		
+		// counted before Phase I, which may end at once
+		boolean shared = imageStore.track(imgLength);
+		super.phaseOne();
+		if (!shared || !phase.equals(CommitPhase.PHASE_ONE)) {
+			return;
+		}
 		
-		// perform phase I
-		CommitDecision commitDecision = phaseOne();
+		storedImg = imageStore.putAsync(img).exceptionally(e -> {
+			System.err.println("Error when storing image of commit " + commitInfo.getFileName() + ".");
+			System.err.println("Error : " + e.getMessage());
+			return null;
+		});
+		whenDone(storedImg, () -> {
+			if (storedImg.join() != null) {
+				img = null;
+			}
+		});
+	}
 
-		/* ------------------------   Phase II   ------------------------ */
+	/**
+	 * Continues the commit process with Phase II once Phase I made the commit decision.
+	 * An approved commit first waits for the image to be stored.
+	 * 
+	 * @param commitDecision - the commit decision
+	 */
+	@Override
+	protected void phaseOneDecided(CommitDecision commitDecision) {
 		
-		// commit and save the image if commit approved
+		imageStore.untrack(imgLength);
 		if (commitDecision.equals(CommitDecision.YES)) {
-			IOHelper.commitImage(commitInfo.getFileName(), imgBytes);
+			whenDone(storedImg, () -> phaseTwoStart(commitDecision));
+			return;
 		}
 		
-		// log the start of Phase II
-		IOHelper.logPrintln(commitInfo, PHASE_TWO_STR + COLON + commitDecision);
-		PL.fsync();
+		// the image is not committed, so drop it whenever the store is done with it
+		storedImg.thenAccept(imgHandle -> {
+			if (imgHandle != null) {
+				imgHandle.release();
+			}
+		});
+		phaseTwoStart(commitDecision);
+	}
+
+	/**
+	 * Commits the image if commit approved, and starts Phase II once the decision is logged.
+	 * 
+	 * @param commitDecision - the commit decision
+	 */
+	private void phaseTwoStart(CommitDecision commitDecision) {
+
+		/* ------------------------   Phase II   ------------------------ */
+		
+		// commit and save the image if commit approved, or abort if it cannot be committed
+		if (commitDecision.equals(CommitDecision.YES) && !commitImage()) {
+			System.err.println("Cannot commit image of commit " + commitInfo.getFileName()
+					   + ", aborting.");
+			IOHelper.uncommitImage(commitInfo.getFileName());
+			commitDecision = CommitDecision.ABORT;
+		}
 		
-		// perform Phase II
-		phaseTwo(commitDecision);
+		// the queries have all been sent, so the image is no longer needed
+		img = null;
 		
-		// log the end of the commit
-		IOHelper.logPrintln(commitInfo, DONE_STR);
-		PL.fsync();
+		// log the start of Phase II, and start it once the record is durable
+		logDecision(commitDecision);
 	}
-}
-
 
+	/**
+	 * Commits the image into the working directory, from the store if it is stored.
+	 * 
+	 * @return true - if the image is committed
+	 */
+	private boolean commitImage() {
+		
+		ImageStore.Handle imgHandle = storedImg.join();
+		if (imgHandle == null) {
+			return IOHelper.commitImage(commitInfo.getFileName(), img);
+		}
+		try {
+			return IOHelper.commitImage(commitInfo.getFileName(), imgHandle);
+		} finally {
+			imgHandle.release();
+		}
+	}
 
+	/**
+	 * Takes back the committed image before aborting, once the decision could not be logged.
+	 * 
+	 * @param commitDecision - the commit decision that was not logged
+	 */
+	@Override
+	protected void decisionNotLogged(CommitDecision commitDecision) {
+		if (commitDecision.equals(CommitDecision.YES)) {
+			IOHelper.uncommitImage(commitInfo.getFileName());
+		}
+		super.decisionNotLogged(commitDecision);
+	}
+}
@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ *
+ * @file GroupCommit.java
+ *
+ * This class makes log records durable in groups.
+ *
+ * Concurrent commits enqueue their log records instead of writing them and calling fsync
+ * themselves. A single flusher thread takes all the pending records, appends them to the log
+ * together, calls fsync once for the whole group, and then releases all the waiting commits
+ * at once. The number of fsyncs therefore grows with the number of groups rather than with
+ * the number of commits.
+ *
+ * If the records of a group cannot be appended or fsynced, none of them is durable, and all
+ * the commits of the group are released with the error instead. The flusher goes on with the
+ * next group.
+ *
+ * @param <R> - the type of the log records
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class GroupCommit<R> implements Runnable {
+
+	/**
+	 * The log that the records of a group are appended to.
+	 *
+	 * @param <R> - the type of the log records
+	 */
+	public interface Log<R> {
+
+		/**
+		 * Appends the records of a group to the log, in order.
+		 *
+		 * @param records - the records
+		 * @throws IOException - exception when writing
+		 */
+		void append(List<R> records) throws IOException;
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------   Instance Variables   ----------------------- */
+	/* -------------------------------------------------------------------- */
+
+	// makes the appended records durable
+	private final Runnable fsync;
+	// the log the records are appended to
+	private final Log<R> log;
+	// the records waiting for the next group
+	private final BlockingQueue<PendingRecord<R>> pending;
+
+
+	/* -------------------------------------------------------------------- */
+	/* -------------------------   Constructor   -------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Constructs the GroupCommit and starts its flusher thread.
+	 *
+	 * @param fsync - makes the appended records durable, such as ProjectLib.fsync
+	 * @param log - the log the records are appended to
+	 */
+	public GroupCommit(Runnable fsync, Log<R> log) {
+		this.fsync = fsync;
+		this.log = log;
+		pending = new LinkedBlockingQueue<>();
+
+		Thread flusher = new Thread(this, "group-commit");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Enqueues the record to be appended to the log.
+	 *
+	 * @param record - the record
+	 * @return durable - completes once the record has been written and fsynced, or with
+	 * 		     the error if it could not be
+	 */
+	public CompletableFuture<Void> log(R record) {
+		PendingRecord<R> pendingRecord = new PendingRecord<>(record);
+		pending.add(pendingRecord);
+		return pendingRecord.durable;
+	}
+
+	/**
+	 * Waits for the next fsync without a record, for changes made to the disk outside the log.
+	 *
+	 * @return durable - completes once the next group has been fsynced
+	 */
+	public CompletableFuture<Void> sync() {
+		return log(null);
+	}
+
+	/**
+	 * Runs the flusher, which writes and fsyncs the pending records group by group.
+	 */
+	@Override
+	public void run() {
+
+		List<PendingRecord<R>> group = new ArrayList<>();
+		List<R> records = new ArrayList<>();
+
+		while (true) {
+
+			// wait for a record, then take every record pending with it
+			try {
+				group.add(pending.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			pending.drainTo(group);
+
+			// append the records together
+			for (PendingRecord<R> pendingRecord : group) {
+				if (pendingRecord.record != null) {
+					records.add(pendingRecord.record);
+				}
+			}
+			Exception error = null;
+			try {
+				if (!records.isEmpty()) {
+					log.append(records);
+				}
+
+				// one fsync for the whole group
+				fsync.run();
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Cannot make " + records.size() + " log records durable.");
+				e.printStackTrace();
+				error = e;
+			}
+
+			// release all the waiting commits
+			for (PendingRecord<R> pendingRecord : group) {
+				if (error == null) {
+					pendingRecord.durable.complete(null);
+				}
+				else {
+					pendingRecord.durable.completeExceptionally(error);
+				}
+			}
+			group.clear();
+			records.clear();
+		}
+	}
+
+
+	/* ----------------------------   Helper Class   ---------------------------- */
+
+	/**
+	 * A record waiting to be appended to the log.
+	 *
+	 * @author YanningMao
+	 *
+	 */
+	private static class PendingRecord<R> {
+
+		private final R record;
+		private final CompletableFuture<Void> durable;
+
+		private PendingRecord(R record) {
+			this.record = record;
+			this.durable = new CompletableFuture<>();
+		}
+	}
+
+}
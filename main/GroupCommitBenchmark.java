@@ -0,0 +1,198 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @file GroupCommitBenchmark.java
+ *
+ * This class measures the throughput of the commits of the Server logging through the
+ * GroupCommit, against each commit fsyncing its own records, at several numbers of
+ * concurrent commits.
+ *
+ * Each commit logs the three records of a full commit, BEGIN, DECISION and DONE, one after
+ * the other. The log only counts the records, and the fsync is a stub that holds the disk
+ * for a fixed time, one fsync at a time, so the throughput only depends on the fsyncs.
+ *
+ * Usage : java GroupCommitBenchmark [fsync ms]
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class GroupCommitBenchmark {
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private static final long DEFAULT_FSYNC_MILLIS = 1;
+	private static final int[] CONCURRENT_COMMITS = {1, 10, 100, 1000};
+	// the commits run at each level, at least two waves of concurrent commits
+	private static final int MIN_COMMITS = 200;
+	private static final int RECORDS_PER_COMMIT = 3;
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	public static void main(String[] args) throws Exception {
+
+		long fsyncMillis = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_FSYNC_MILLIS;
+		StubDisk disk = new StubDisk(fsyncMillis);
+		GroupCommit<String> groupCommit = new GroupCommit<>(disk::fsync, disk::append);
+
+		System.out.println("Commits of " + RECORDS_PER_COMMIT + " records, fsync of "
+				   + fsyncMillis + " ms");
+		System.out.printf("%12s %18s %12s %18s %12s%n", "concurrent", "fsync per record",
+				  "fsyncs", "group commit", "fsyncs");
+
+		for (int concurrent : CONCURRENT_COMMITS) {
+			int numCommits = Math.max(MIN_COMMITS, 2 * concurrent);
+
+			disk.reset();
+			double direct = runDirect(disk, concurrent, numCommits);
+			long directFsyncs = disk.getNumFsyncs();
+
+			disk.reset();
+			double grouped = runGrouped(groupCommit, concurrent, numCommits);
+			long groupedFsyncs = disk.getNumFsyncs();
+
+			System.out.printf("%12d %14.0f c/s %12d %14.0f c/s %12d%n", concurrent,
+					  direct, directFsyncs, grouped, groupedFsyncs);
+		}
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Helpers   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Runs the commits on as many threads as concurrent commits, each appending and
+	 * fsyncing its own records.
+	 *
+	 * @param disk - the stub disk
+	 * @param concurrent - the number of concurrent commits
+	 * @param numCommits - the number of commits
+	 * @return throughput - the commits per second
+	 */
+	private static double runDirect(StubDisk disk, int concurrent, int numCommits)
+			throws InterruptedException {
+
+		ExecutorService threads = Executors.newFixedThreadPool(concurrent);
+		long start = System.nanoTime();
+		for (int i = 0; i < numCommits; i ++) {
+			String name = "commit-" + i;
+			threads.execute(() -> {
+				for (int r = 0; r < RECORDS_PER_COMMIT; r ++) {
+					List<String> records = new ArrayList<>();
+					records.add(name);
+					disk.append(records);
+					disk.fsync();
+				}
+			});
+		}
+		threads.shutdown();
+		threads.awaitTermination(1, TimeUnit.HOURS);
+
+		return numCommits / ((System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Runs the commits through the group commit, keeping the given number of commits in
+	 * flight. A commit logs its next record once the previous one is durable, as the
+	 * commit processes of the Server do, without a thread per commit.
+	 *
+	 * @param groupCommit - the group commit over the stub disk
+	 * @param concurrent - the number of concurrent commits
+	 * @param numCommits - the number of commits
+	 * @return throughput - the commits per second
+	 */
+	private static double runGrouped(GroupCommit<String> groupCommit, int concurrent,
+					 int numCommits) {
+
+		AtomicLong nextCommit = new AtomicLong(0);
+		List<CompletableFuture<Void>> chains = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int i = 0; i < concurrent; i ++) {
+			chains.add(runCommits(groupCommit, nextCommit, numCommits));
+		}
+		CompletableFuture.allOf(chains.toArray(new CompletableFuture<?>[0])).join();
+
+		return numCommits / ((System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Runs commits one after the other until all the commits have been taken.
+	 *
+	 * @param groupCommit - the group commit
+	 * @param nextCommit - the number of commits taken so far
+	 * @param numCommits - the number of commits
+	 * @return done - completes once no commit is left
+	 */
+	private static CompletableFuture<Void> runCommits(GroupCommit<String> groupCommit,
+							  AtomicLong nextCommit, int numCommits) {
+		long commit = nextCommit.getAndIncrement();
+		if (commit >= numCommits) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		String name = "commit-" + commit;
+		CompletableFuture<Void> logged = groupCommit.log(name);
+		for (int r = 1; r < RECORDS_PER_COMMIT; r ++) {
+			logged = logged.thenCompose(ignored -> groupCommit.log(name));
+		}
+		return logged.thenCompose(ignored -> runCommits(groupCommit, nextCommit, numCommits));
+	}
+
+
+	/* ----------------------------   Helper Class   ---------------------------- */
+
+	/**
+	 * A disk that only counts the records appended to it, and whose fsync takes a fixed
+	 * time, one at a time.
+	 *
+	 * @author YanningMao
+	 *
+	 */
+	private static class StubDisk {
+
+		private final long fsyncMillis;
+		private final AtomicLong numRecords;
+		private long numFsyncs;
+
+		private StubDisk(long fsyncMillis) {
+			this.fsyncMillis = fsyncMillis;
+			this.numRecords = new AtomicLong(0);
+		}
+
+		private void append(List<String> records) {
+			numRecords.addAndGet(records.size());
+		}
+
+		private synchronized void fsync() {
+			try {
+				TimeUnit.MILLISECONDS.sleep(fsyncMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			numFsyncs ++;
+		}
+
+		private synchronized void reset() {
+			numRecords.set(0);
+			numFsyncs = 0;
+		}
+
+		private synchronized long getNumFsyncs() {
+			return numFsyncs;
+		}
+	}
+
+}
@@ -0,0 +1,222 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * @file HashedWheelTimer.java
+ *
+ * This class keeps the time out events of all the commits on a single thread.
+ *
+ * The timer is a wheel of buckets, one per tick. A time out is put into the bucket of the
+ * tick its absolute deadline falls into, with the number of whole turns of the wheel left
+ * before it is due. On every tick, the timer thread walks one bucket, hands the due time
+ * outs to the executor and drops the cancelled ones. Scheduling and cancelling are constant
+ * time, so thousands of pending time outs cost one thread and one bucket walk per tick.
+ *
+ * A time out fires at the first tick after its deadline, so it may be late by up to one
+ * tick, but never early.
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class HashedWheelTimer implements Runnable {
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	public static final long TICK_MILLIS = 10;
+	public static final int WHEEL_SIZE = 512;
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------   Instance Variables   ----------------------- */
+	/* -------------------------------------------------------------------- */
+
+	// runs the time out events once they are due
+	private final Executor executor;
+	private final long tickNanos;
+	// the time the wheel started at, all the ticks are counted from it
+	private final long startNanos;
+	private final List<List<Timeout>> wheel;
+	// the time outs scheduled since the last tick, put into the wheel by the timer thread
+	private final Queue<Timeout> scheduled;
+	// the number of ticks done, only used by the timer thread
+	private long tick;
+
+
+	/* -------------------------------------------------------------------- */
+	/* -------------------------   Constructor   -------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Constructs the timer and starts its thread.
+	 *
+	 * @param executor - the executor that runs the due time out events
+	 */
+	public HashedWheelTimer(Executor executor) {
+		this.executor = executor;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+		this.startNanos = System.nanoTime();
+		this.scheduled = new ConcurrentLinkedQueue<>();
+		this.tick = 0;
+
+		wheel = new ArrayList<>(WHEEL_SIZE);
+		for (int i = 0; i < WHEEL_SIZE; i ++) {
+			wheel.add(new ArrayList<>());
+		}
+
+		Thread timer = new Thread(this, "commit-timer");
+		timer.setDaemon(true);
+		timer.start();
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Schedules the event to run at the absolute deadline.
+	 *
+	 * @param event - the time out event
+	 * @param deadlineNanos - the deadline, in the time of System.nanoTime
+	 * @return timeout - the handle used to cancel the time out
+	 */
+	public Timeout schedule(Runnable event, long deadlineNanos) {
+		Timeout timeout = new Timeout(event, deadlineNanos);
+		scheduled.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Runs the timer thread, which walks one bucket of the wheel on every tick.
+	 */
+	@Override
+	public void run() {
+
+		while (true) {
+
+			// wait for the end of the tick
+			long tickEnd = startNanos + (tick + 1) * tickNanos;
+			long now;
+			while ((now = System.nanoTime()) < tickEnd) {
+				LockSupport.parkNanos(tickEnd - now);
+			}
+
+			// put the new time outs into the wheel, then fire the due ones
+			Timeout timeout;
+			while ((timeout = scheduled.poll()) != null) {
+				place(timeout);
+			}
+			expire(wheel.get((int) (tick % WHEEL_SIZE)));
+
+			tick ++;
+		}
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Helpers   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Puts the time out into the bucket of the tick of its deadline. A time out whose
+	 * deadline has passed goes into the current bucket.
+	 *
+	 * @param timeout - the time out
+	 */
+	private void place(Timeout timeout) {
+
+		if (timeout.isCancelled()) {
+			return;
+		}
+
+		// the tick the deadline falls into, rounded up so the time out is never early
+		long deadlineTick = Math.max(tick,
+					     ceilDiv(timeout.deadlineNanos - startNanos, tickNanos) - 1);
+		timeout.remainingRounds = (deadlineTick - tick) / WHEEL_SIZE;
+		wheel.get((int) (deadlineTick % WHEEL_SIZE)).add(timeout);
+	}
+
+	/**
+	 * Fires the due time outs of the bucket, and drops the cancelled ones.
+	 *
+	 * @param bucket - the bucket of the current tick
+	 */
+	private void expire(List<Timeout> bucket) {
+
+		int numLeft = 0;
+		for (Timeout timeout : bucket) {
+
+			if (timeout.isCancelled()) {
+				continue;
+			}
+			if (timeout.remainingRounds <= 0) {
+				executor.execute(timeout.event);
+				continue;
+			}
+
+			// due in a later turn of the wheel
+			timeout.remainingRounds --;
+			bucket.set(numLeft ++, timeout);
+		}
+		bucket.subList(numLeft, bucket.size()).clear();
+	}
+
+	/**
+	 * Divides and rounds up, for a non-negative divisor.
+	 *
+	 * @param x - the dividend
+	 * @param y - the divisor
+	 * @return quotient - the rounded up quotient
+	 */
+	private static long ceilDiv(long x, long y) {
+		return -Math.floorDiv(-x, y);
+	}
+
+
+	/* ----------------------------   Helper Class   ---------------------------- */
+
+	/**
+	 * A pending time out event of the timer.
+	 *
+	 * @author YanningMao
+	 *
+	 */
+	public static final class Timeout {
+
+		private final Runnable event;
+		private final long deadlineNanos;
+		// the turns of the wheel left before the time out is due
+		private long remainingRounds;
+		private volatile boolean cancelled;
+
+		private Timeout(Runnable event, long deadlineNanos) {
+			this.event = event;
+			this.deadlineNanos = deadlineNanos;
+		}
+
+		/**
+		 * Cancels the time out. Has no effect once the event has been handed to the executor.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public long getDeadlineNanos() {
+			return deadlineNanos;
+		}
+	}
+
+}
@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *
+ * @file ImageBuffer.java
+ *
+ * This class is an immutable, read-only view of the bytes of a commit image.
+ *
+ * The same ImageBuffer is shared by a commit and by all the messages that carry its image,
+ * so the image bytes are never copied defensively. The view wraps the bytes without copying
+ * them, and callers must not modify the wrapped array afterwards. An image kept in a file,
+ * such as in the ImageStore, is mapped into memory instead of being read onto the heap.
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public final class ImageBuffer {
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------   Instance Variables   ----------------------- */
+	/* -------------------------------------------------------------------- */
+
+	// the read-only view of the image bytes
+	private final ByteBuffer bytes;
+
+
+	/* -------------------------------------------------------------------- */
+	/* -------------------------   Constructor   -------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private ImageBuffer(ByteBuffer bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Wraps the whole array as an image, without copying it.
+	 *
+	 * @param img - the image bytes
+	 * @return imageBuffer - the image view
+	 */
+	public static ImageBuffer wrap(byte[] img) {
+		return wrap(img, 0, img.length);
+	}
+
+	/**
+	 * Wraps a range of the array as an image, without copying it.
+	 *
+	 * @param array - the array holding the image bytes
+	 * @param offset - the offset of the image in the array
+	 * @param length - the length of the image
+	 * @return imageBuffer - the image view
+	 */
+	public static ImageBuffer wrap(byte[] array, int offset, int length) {
+		return new ImageBuffer(ByteBuffer.wrap(array, offset, length).slice().asReadOnlyBuffer());
+	}
+
+	/**
+	 * Maps the whole file as an image, without reading it onto the heap.
+	 * The file must not be modified while the image is in use.
+	 *
+	 * @param path - the image file
+	 * @return imageBuffer - the image view
+	 * @throws IOException - if the file cannot be mapped
+	 */
+	public static ImageBuffer map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return new ImageBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Gets the length of the image.
+	 *
+	 * @return length - the number of bytes of the image
+	 */
+	public int length() {
+		return bytes.capacity();
+	}
+
+	/**
+	 * Gets a read-only ByteBuffer over the image, positioned at its first byte.
+	 *
+	 * @return buffer - the read-only buffer
+	 */
+	public ByteBuffer asByteBuffer() {
+		return bytes.duplicate();
+	}
+
+	/**
+	 * Copies the image into the array at the given offset.
+	 *
+	 * @param dst - the destination array
+	 * @param offset - the offset in the destination array
+	 */
+	public void copyTo(byte[] dst, int offset) {
+		bytes.duplicate().get(dst, offset, length());
+	}
+
+	/**
+	 * Writes the whole image to the channel.
+	 *
+	 * @param channel - the channel
+	 * @throws IOException - exception when writing
+	 */
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer view = bytes.duplicate();
+		while (view.hasRemaining()) {
+			channel.write(view);
+		}
+	}
+
+	/**
+	 * Copies the image into a new array, for the APIs that need one.
+	 *
+	 * @return img - a copy of the image bytes
+	 */
+	public byte[] toByteArray() {
+		byte[] img = new byte[length()];
+		copyTo(img, 0);
+		return img;
+	}
+
+}
@@ -0,0 +1,334 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *
+ * @file ImageStore.java
+ *
+ * This class keeps the images of the commits in progress on the Server, addressed by their
+ * content.
+ *
+ * Each image is stored once, in a file named by the SHA-256 digest of its bytes, however many
+ * commits in flight carry the same bytes. A commit holds a Handle on its image instead of the
+ * bytes, and maps the file into memory only while it needs the image. The store counts the
+ * handles of each image, and deletes the file once the last handle is released.
+ *
+ * Hashing and writing an image only pays off when another commit in flight carries the same
+ * bytes, which needs an image of the same length. The store counts the images in flight of
+ * each length, and a commit only stores its image when another image of that length is in
+ * flight; otherwise it keeps the image in memory, so the common case of distinct images pays
+ * neither for the digest nor for the write.
+ *
+ * The images are hashed and written by the own threads of the store, off the commit engine.
+ * The file of an image is written and deleted under the lock of its entry only, so the images
+ * of other commits are never held up by the I/O.
+ *
+ * A commit only needs its image until the commit decision. An approved image is committed
+ * into the working directory before the decision is logged, and the recovery aborts any
+ * commit without a logged decision, so no image is ever read back after a failure. The log
+ * therefore does not refer to the digests, and the store is not part of the recovery: it
+ * saves the memory of the commits in flight and the copies of identical commits in flight at
+ * the same time, not the images of finished commits. It is kept out of the directory of the
+ * Server, whose fsync should not carry the images in flight, and the files left over by a
+ * failure are deleted when the store is opened.
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class ImageStore {
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	// the number of threads hashing and writing the images
+	private static final int NUM_WRITERS = 2;
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------   Instance Variables   ----------------------- */
+	/* -------------------------------------------------------------------- */
+
+	// the directory holding the image files
+	private final File storeDir;
+	// the entry of each stored image, by digest
+	private final ConcurrentMap<String, Entry> entries;
+	// the number of images in flight of each length, stored or not
+	private final ConcurrentMap<Integer, Integer> inFlight;
+	// hashes and writes the images off the commit engine
+	private final ExecutorService writers;
+
+
+	/* -------------------------------------------------------------------- */
+	/* -------------------------   Constructor   -------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Opens the store in the directory, deleting the images left over by a failure.
+	 *
+	 * @param storeDirPath - the directory of the store
+	 */
+	public ImageStore(String storeDirPath) {
+		this.storeDir = new File(storeDirPath);
+		this.entries = new ConcurrentHashMap<>();
+		this.inFlight = new ConcurrentHashMap<>();
+		this.writers = Executors.newFixedThreadPool(NUM_WRITERS, runnable -> {
+			Thread thread = new Thread(runnable, "image-store");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		if (!storeDir.exists()) {
+			storeDir.mkdirs();
+		}
+		File[] leftovers = storeDir.listFiles();
+		if (leftovers != null) {
+			for (File leftover : leftovers) {
+				leftover.delete();
+			}
+		}
+		// load the digest provider now rather than on the first commit
+		digest(ImageBuffer.wrap(new byte[0]));
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Counts an image of a commit in flight, and tells whether the image may share its bytes
+	 * with another image in flight, which is the only case worth storing it.
+	 *
+	 * @param length - the length of the image
+	 * @return shared - whether another image of the same length is in flight
+	 */
+	public boolean track(int length) {
+		return inFlight.merge(length, 1, Integer::sum) > 1;
+	}
+
+	/**
+	 * Stops counting an image of a commit in flight, once the commit no longer needs it.
+	 *
+	 * @param length - the length of the image
+	 */
+	public void untrack(int length) {
+		inFlight.computeIfPresent(length, (key, count) -> count > 1 ? count - 1 : null);
+	}
+
+	/**
+	 * Stores the image, unless the same bytes are already stored, and takes a handle on it.
+	 *
+	 * @param img - the image
+	 * @return handle - the handle on the stored image
+	 * @throws IOException - if the image cannot be written
+	 */
+	public Handle put(ImageBuffer img) throws IOException {
+
+		String digest = digest(img);
+		while (true) {
+			Entry entry = entries.computeIfAbsent(digest, key -> new Entry());
+			synchronized (entry) {
+
+				// released by its last handle meanwhile, so take a new entry
+				if (entry.removed) {
+					continue;
+				}
+
+				// the first handle writes the file
+				if (entry.refs == 0) {
+					try {
+						write(digest, img);
+					} catch (IOException e) {
+						entry.removed = true;
+						entries.remove(digest, entry);
+						throw e;
+					}
+				}
+				entry.refs ++;
+				return new Handle(digest);
+			}
+		}
+	}
+
+	/**
+	 * Stores the image on the threads of the store, so that the caller does not wait for
+	 * the digest and the write.
+	 *
+	 * @param img - the image
+	 * @return storedImg - completes with the handle on the stored image, or with the error
+	 */
+	public CompletableFuture<Handle> putAsync(ImageBuffer img) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return put(img);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, writers);
+	}
+
+	/**
+	 * Gets the number of distinct images stored.
+	 *
+	 * @return numImages - the number of stored images
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Helpers   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Drops a handle of the image, and deletes the image once it has no handle left.
+	 *
+	 * @param digest - the digest of the image
+	 */
+	private void release(String digest) {
+
+		Entry entry = entries.get(digest);
+		if (entry == null) {
+			return;
+		}
+		synchronized (entry) {
+			entry.refs --;
+			if (entry.refs > 0) {
+				return;
+			}
+			entry.removed = true;
+			getPath(digest).toFile().delete();
+			entries.remove(digest, entry);
+		}
+	}
+
+	/**
+	 * Writes the image into its file.
+	 *
+	 * @param digest - the digest of the image
+	 * @param img - the image
+	 * @throws IOException - if the image cannot be written
+	 */
+	private void write(String digest, ImageBuffer img) throws IOException {
+		try (FileChannel channel = FileChannel.open(getPath(digest), StandardOpenOption.CREATE,
+							    StandardOpenOption.TRUNCATE_EXISTING,
+							    StandardOpenOption.WRITE)) {
+			img.writeTo(channel);
+		}
+	}
+
+	private Path getPath(String digest) {
+		return new File(storeDir, digest).toPath();
+	}
+
+	/**
+	 * Computes the hex SHA-256 digest of the image.
+	 *
+	 * @param img - the image
+	 * @return digest - the digest in lower case hex
+	 */
+	private static String digest(ImageBuffer img) {
+
+		byte[] hash;
+		try {
+			MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			md.update(img.asByteBuffer());
+			hash = md.digest();
+		} catch (NoSuchAlgorithmException e) {
+			// every JVM provides SHA-256
+			throw new IllegalStateException(e);
+		}
+
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i ++) {
+			hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+			hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0xF];
+		}
+		return new String(hex);
+	}
+
+
+	/* ----------------------------   Helper Class   ---------------------------- */
+
+	/**
+	 * The handles of a stored image, guarded by the entry itself.
+	 *
+	 * @author YanningMao
+	 *
+	 */
+	private static final class Entry {
+
+		// the number of handles on the image
+		private int refs;
+		// whether the image has been deleted, after which the entry is not used again
+		private boolean removed;
+
+		private Entry() {
+			this.refs = 0;
+			this.removed = false;
+		}
+	}
+
+
+	/**
+	 * A handle on a stored image, held by a commit instead of the image bytes.
+	 *
+	 * @author YanningMao
+	 *
+	 */
+	public final class Handle {
+
+		private final String digest;
+		private final AtomicBoolean released;
+
+		private Handle(String digest) {
+			this.digest = digest;
+			this.released = new AtomicBoolean(false);
+		}
+
+		/**
+		 * Maps the image into memory. The image must not be used after the handle
+		 * is released.
+		 *
+		 * @return img - the image
+		 * @throws IOException - if the image cannot be mapped
+		 */
+		public ImageBuffer open() throws IOException {
+			if (released.get()) {
+				throw new IllegalStateException("Image " + digest + " already released");
+			}
+			return ImageBuffer.map(getPath(digest));
+		}
+
+		/**
+		 * Releases the handle. Has no effect after the first call.
+		 */
+		public void release() {
+			if (released.compareAndSet(false, true)) {
+				ImageStore.this.release(digest);
+			}
+		}
+
+		public String getDigest() {
+			return digest;
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ *
+ * @file LogWriter.java
+ *
+ * This class is an append-only writer of a log file.
+ *
+ * The writer keeps its FileChannel open between records, and appends each record with a
+ * single write. Records of the same log are serialized on the writer, while records of
+ * different logs are written concurrently.
+ *
+ * The writers are shared by the log file path, and stay open until the log is closed. A log
+ * is opened on its first record, or ahead of it by open().
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class LogWriter {
+
+	/* -------------------------------------------------------------------- */
+	/* -----------------------   Class Variables   ------------------------ */
+	/* -------------------------------------------------------------------- */
+
+	// the open writers by log file path
+	private static ConcurrentMap<String, LogWriter> writers = new ConcurrentHashMap<>();
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------   Instance Variables   ----------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private final String filePath;
+	// the open channel of the log file, null once the log is closed
+	private FileChannel channel;
+
+
+	/* -------------------------------------------------------------------- */
+	/* -------------------------   Constructor   -------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private LogWriter(String filePath) {
+		this.filePath = filePath;
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Gets the writer of the log file, which is opened on its first record.
+	 *
+	 * @param filePath - the log file path
+	 * @return writer - the log writer
+	 */
+	public static LogWriter forPath(String filePath) {
+		return writers.computeIfAbsent(filePath, LogWriter::new);
+	}
+
+	/**
+	 * Closes the writer of the log file, if it is open.
+	 *
+	 * @param filePath - the log file path
+	 */
+	public static void close(String filePath) {
+		LogWriter writer = writers.remove(filePath);
+		if (writer != null) {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Appends the record to the end of the log with a single write.
+	 *
+	 * @param record - the record
+	 * @throws IOException - exception when writing
+	 */
+	public synchronized void append(String record) throws IOException {
+
+		open();
+
+		ByteBuffer bytes = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+
+	/**
+	 * Opens the log file ahead of the first record, creating it if needed, so that the first
+	 * record only pays for its write.
+	 *
+	 * @throws IOException - exception when opening
+	 */
+	public synchronized void open() throws IOException {
+
+		if (channel == null) {
+			channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+						   StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+	}
+
+	/**
+	 * Closes the channel of the log file.
+	 */
+	private synchronized void close() {
+
+		if (channel == null) {
+			return;
+		}
+
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// ignore close exceptions
+		}
+		channel = null;
+	}
+
+}
@@ -0,0 +1,226 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *
+ * @file MessageBatcher.java
+ *
+ * This class sends the packed messages of a node, coalescing the messages bound for the same
+ * destination into batches.
+ *
+ * Each destination has an outbox. A message to a destination that is not being sent to is sent
+ * at once. The messages put into the outbox while a sender is busy with the destination are
+ * sent together as one batch when the sender is done, so batches only form under load and an
+ * idle destination is never kept waiting. An outbox that reaches MAX_BATCH_BYTES is queued at
+ * once. A single message is sent as it is, and a message as large as a batch, such as a commit
+ * query with its image, is never batched, after the messages queued before it have been sent.
+ *
+ * Sending never blocks the caller. The batches of each destination are put into its send
+ * queue, which is drained by one of a small pool of senders at a time, so the messages to a
+ * destination keep their order, while a destination that is slow to deliver to only holds up
+ * its own queue and not the fan-out to the other destinations.
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class MessageBatcher {
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	// the size of the messages in an outbox that sends them at once
+	public static final int MAX_BATCH_BYTES = 64 * 1024;
+	// the number of platform threads sending the messages
+	public static final int NUM_SENDERS = 4;
+	// the messages a sender sends to a destination before it lets the other destinations go
+	private static final int MAX_SENDS_PER_DRAIN = 16;
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------   Instance Variables   ----------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private final ProjectLib PL;
+	// the outbox of each destination
+	private final ConcurrentMap<String, Outbox> outboxes;
+	// drains the send queues of the destinations
+	private final ExecutorService senders;
+
+
+	/* -------------------------------------------------------------------- */
+	/* -------------------------   Constructor   -------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Constructs the MessageBatcher.
+	 *
+	 * @param PL - the ProjectLib object used to send the messages
+	 */
+	public MessageBatcher(ProjectLib PL) {
+		this.PL = PL;
+		this.outboxes = new ConcurrentHashMap<>();
+		this.senders = ExecutionMode.fromConfig().newExecutor(NUM_SENDERS);
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Sends the packed message to the destination, in a batch with the other messages sent
+	 * to it while it is busy. Returns without waiting for the message to be delivered.
+	 *
+	 * @param addr - the destination
+	 * @param msgBytes - the packed message
+	 */
+	public void send(String addr, byte[] msgBytes) {
+		outboxes.computeIfAbsent(addr, Outbox::new).put(msgBytes);
+	}
+
+
+	/* ----------------------------   Helper Class   ---------------------------- */
+
+	/**
+	 * The messages waiting to be sent to a destination.
+	 *
+	 * @author YanningMao
+	 *
+	 */
+	private class Outbox {
+
+		private final String addr;
+		private final List<byte[]> msgs;
+		private int numBytes;
+		// the batches waiting to be sent, in order
+		private final Queue<byte[]> sendQueue;
+		// whether a sender is draining the send queue, only set while holding the outbox
+		private final AtomicBoolean drainScheduled;
+
+		private Outbox(String addr) {
+			this.addr = addr;
+			this.msgs = new ArrayList<>();
+			this.numBytes = 0;
+			this.sendQueue = new ConcurrentLinkedQueue<>();
+			this.drainScheduled = new AtomicBoolean(false);
+		}
+
+		/**
+		 * Puts the message into the outbox, and queues the outbox to be sent if it is full or
+		 * no sender is busy with the destination.
+		 *
+		 * @param msgBytes - the packed message
+		 */
+		private synchronized void put(byte[] msgBytes) {
+
+			// a large message is sent on its own, after the messages before it
+			if (msgBytes.length >= MAX_BATCH_BYTES) {
+				flush();
+				enqueue(msgBytes);
+				return;
+			}
+
+			msgs.add(msgBytes);
+			numBytes += msgBytes.length;
+
+			// otherwise the sender takes the outbox once it is done with the destination
+			if (numBytes >= MAX_BATCH_BYTES || !drainScheduled.get()) {
+				flush();
+			}
+		}
+
+		/**
+		 * Queues the messages of the outbox to be sent, as a batch if there are several.
+		 */
+		private synchronized void flush() {
+
+			if (msgs.isEmpty()) {
+				return;
+			}
+
+			// a batch that cannot be packed is dropped, as a lost message would be
+			byte[] bytes;
+			try {
+				if (msgs.size() == 1) {
+					bytes = msgs.get(0);
+				}
+				else {
+					bytes = MessageConvert.packBatch(msgs);
+				}
+			} finally {
+				msgs.clear();
+				numBytes = 0;
+			}
+
+			enqueue(bytes);
+		}
+
+		/**
+		 * Puts the bytes into the send queue, and hands the queue to a sender if no sender
+		 * is draining it.
+		 *
+		 * @param bytes - the message or batch
+		 */
+		private void enqueue(byte[] bytes) {
+			sendQueue.add(bytes);
+			if (drainScheduled.compareAndSet(false, true)) {
+				senders.execute(this::drain);
+			}
+		}
+
+		/**
+		 * Sends the queued messages to the destination, run by one sender at a time. Once the
+		 * send queue is empty, the messages put into the outbox in the meantime are queued
+		 * as one batch, and the sender stops when there are none.
+		 */
+		private void drain() {
+
+			int numSent = 0;
+			boolean handedOver = false;
+			try {
+				while (true) {
+
+					// let the other destinations go, the next drain goes on with this one
+					if (numSent >= MAX_SENDS_PER_DRAIN) {
+						senders.execute(this::drain);
+						handedOver = true;
+						return;
+					}
+
+					byte[] bytes = sendQueue.poll();
+					if (bytes == null) {
+						synchronized (this) {
+							flush();
+							if (sendQueue.isEmpty()) {
+								drainScheduled.set(false);
+								handedOver = true;
+								return;
+							}
+						}
+						continue;
+					}
+
+					PL.sendMessage(new ProjectLib.Message(addr, bytes));
+					numSent ++;
+				}
+			} finally {
+				// a failed send loses its message, but must not leave the destination wedged
+				if (!handedOver) {
+					drainScheduled.set(false);
+					if (!sendQueue.isEmpty() && drainScheduled.compareAndSet(false, true)) {
+						senders.execute(this::drain);
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,572 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * @file MessageCodec.java
+ *
+ * This class encodes a MessageContent object into the compact binary wire format and decodes
+ * it back, without Java serialization.
+ *
+ * The wire format (version 1) is :
+ *
+ *   version byte | type byte | flags byte | file name | sender | receiver | [files]
+ *   | [recipients] | [time out] | [image]
+ *
+ * The strings are UTF-8 bytes prefixed by their length as a varint. The files are a varint
+ * count followed by the file names, and the image is a varint length followed by the bytes.
+ * The flags byte carries the agreement and the ask time out bits, and tells whether the
+ * files, the recipients, the time out and the image follow. The time out is a varint of milliseconds. The recipients are a varint count followed by the name and the files of each
+ * receiver.
+ *
+ * Each thread encodes into its own reusable buffer, so that an ACK or a vote only allocates
+ * the final array of a few tens of bytes. The image is copied once, straight into the final
+ * array, and decoded as a view of the message bytes.
+ *
+ * A message sent to many User Nodes that only differ in the receiver and the files, such as
+ * a commit query with its image, is encoded once with the files of all the receivers as its
+ * recipients. The same bytes are sent to every receiver, which picks out its own files, so
+ * the image is copied once per message rather than once per receiver.
+ *
+ * Several encoded messages to the same node can be sent together in a batch envelope :
+ *
+ *   batch marker byte | message count | (message length | message bytes) ...
+ *
+ * The count and the lengths are varints.
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class MessageCodec {
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	public static final byte FORMAT_VERSION = 1;
+	public static final byte BATCH_MARKER = 2;
+
+	private static final int FLAG_AGREEMENT = 1;
+	private static final int FLAG_FILES = 1 << 1;
+	private static final int FLAG_IMG = 1 << 2;
+	private static final int FLAG_RECIPIENTS = 1 << 3;
+	private static final int FLAG_TIME_OUT = 1 << 4;
+	private static final int FLAG_ASK_TIMED_OUT = 1 << 5;
+
+	// a string of length NULL_LENGTH - 1 is encoded for null strings
+	private static final int NULL_LENGTH = 0;
+
+	private static final int INITIAL_BUFFER_SIZE = 256;
+	// larger buffers are not kept by the thread after encoding
+	private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+	private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+
+	// the reusable encode buffer of each thread
+	private static final ThreadLocal<MessageCodec> ENCODERS =
+			ThreadLocal.withInitial(() -> new MessageCodec(INITIAL_BUFFER_SIZE));
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------   Instance Variables   ----------------------- */
+	/* -------------------------------------------------------------------- */
+
+	// the buffer and the position to read or write
+	private byte[] buf;
+	private int pos;
+	// the end of the bytes to read
+	private int limit;
+
+
+	/* -------------------------------------------------------------------- */
+	/* -------------------------   Constructor   -------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private MessageCodec(int size) {
+		buf = new byte[size];
+		pos = 0;
+		limit = size;
+	}
+
+	private MessageCodec(byte[] bytes, int offset, int length) {
+		buf = bytes;
+		pos = offset;
+		limit = offset + length;
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Checks whether the bytes are in the binary wire format.
+	 *
+	 * @param msgBytes - the message bytes
+	 * @return true - if the bytes start with the format version
+	 */
+	public static boolean isEncoded(byte[] msgBytes) {
+		return msgBytes.length > 0 && msgBytes[0] == FORMAT_VERSION;
+	}
+
+	/**
+	 * Encodes the message into the binary wire format.
+	 *
+	 * @param msg - the MessageContent object
+	 * @return msgBytes - the encoded message
+	 */
+	public static byte[] encode(MessageContent msg) {
+
+		MessageCodec encoder = ENCODERS.get();
+		encoder.pos = 0;
+
+		// write the header
+		int flags = 0;
+		if (msg.hasFiles()) {
+			flags |= FLAG_FILES;
+		}
+		encoder.writeHeader(msg, flags);
+		encoder.writeString(msg.getReceiver());
+
+		// write the optional fields
+		if (msg.hasFiles()) {
+			String[] files = msg.getFiles();
+			encoder.writeVarInt(files.length);
+			for (String file : files) {
+				encoder.writeString(file);
+			}
+		}
+
+		return encoder.finish(msg);
+	}
+
+	/**
+	 * Encodes a message shared by all its receivers, such as a commit query or a commit
+	 * decision. It carries the receivers and their files encoded by encodeRecipients instead
+	 * of a single receiver and its files, so the same bytes can be sent to every receiver.
+	 *
+	 * @param msg - the MessageContent object, without receiver and files
+	 * @param recipients - the receivers and their files, as encoded by encodeRecipients
+	 * @return msgBytes - the encoded message
+	 */
+	public static byte[] encodeShared(MessageContent msg, byte[] recipients) {
+
+		MessageCodec encoder = ENCODERS.get();
+		encoder.pos = 0;
+
+		encoder.writeHeader(msg, FLAG_RECIPIENTS);
+		encoder.writeString(null);
+		encoder.writeBytes(recipients, 0, recipients.length);
+
+		return encoder.finish(msg);
+	}
+
+	/**
+	 * Encodes the receivers of a shared message and their files once, as a count followed
+	 * by the name and the files of each receiver.
+	 *
+	 * @param recipients - the source files of each receiver
+	 * @return recipients - the encoded receivers and files
+	 */
+	public static byte[] encodeRecipients(Map<String, String[]> recipients) {
+
+		MessageCodec encoder = ENCODERS.get();
+		encoder.pos = 0;
+
+		encoder.writeVarInt(recipients.size());
+		for (Map.Entry<String, String[]> recipient : recipients.entrySet()) {
+			encoder.writeString(recipient.getKey());
+			encoder.writeVarInt(recipient.getValue().length);
+			for (String file : recipient.getValue()) {
+				encoder.writeString(file);
+			}
+		}
+
+		byte[] bytes = Arrays.copyOf(encoder.buf, encoder.pos);
+
+		// do not keep a large buffer around
+		if (encoder.buf.length > MAX_RETAINED_BUFFER_SIZE) {
+			encoder.buf = new byte[INITIAL_BUFFER_SIZE];
+		}
+		return bytes;
+	}
+
+	/**
+	 * Checks whether the bytes are a batch envelope.
+	 *
+	 * @param bytes - the received bytes
+	 * @return true - if the bytes start with the batch marker
+	 */
+	public static boolean isBatch(byte[] bytes) {
+		return bytes.length > 0 && bytes[0] == BATCH_MARKER;
+	}
+
+	/**
+	 * Encodes the messages into a batch envelope.
+	 *
+	 * @param msgs - the encoded messages
+	 * @return bytes - the batch envelope
+	 */
+	public static byte[] encodeBatch(List<byte[]> msgs) {
+
+		MessageCodec encoder = ENCODERS.get();
+		encoder.pos = 0;
+
+		encoder.writeByte(BATCH_MARKER);
+		encoder.writeVarInt(msgs.size());
+		for (byte[] msgBytes : msgs) {
+			encoder.writeVarInt(msgBytes.length);
+			encoder.writeBytes(msgBytes, 0, msgBytes.length);
+		}
+
+		byte[] bytes = Arrays.copyOf(encoder.buf, encoder.pos);
+
+		// do not keep a large buffer around
+		if (encoder.buf.length > MAX_RETAINED_BUFFER_SIZE) {
+			encoder.buf = new byte[INITIAL_BUFFER_SIZE];
+		}
+		return bytes;
+	}
+
+	/**
+	 * Decodes a batch envelope into the encoded messages it holds. The messages are views
+	 * of the envelope, so their images are not copied again.
+	 *
+	 * @param bytes - the batch envelope
+	 * @return msgs - the encoded messages, as slices of the envelope
+	 * @throws IllegalArgumentException - if the bytes are not a valid batch
+	 */
+	public static List<ByteBuffer> decodeBatch(byte[] bytes) {
+
+		MessageCodec decoder = new MessageCodec(bytes, 0, bytes.length);
+
+		try {
+			if (decoder.readByte() != BATCH_MARKER) {
+				throw new IllegalArgumentException("Not a message batch");
+			}
+			int count = decoder.readCount();
+			List<ByteBuffer> msgs = new ArrayList<>(count);
+			for (int i = 0; i < count; i ++) {
+				int length = decoder.readLength();
+				msgs.add(ByteBuffer.wrap(bytes, decoder.pos, length).slice());
+				decoder.pos += length;
+			}
+			return msgs;
+		} catch (IllegalArgumentException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Malformed message batch of " + bytes.length + " bytes", e);
+		}
+	}
+
+	/**
+	 * Decodes the message from the binary wire format.
+	 *
+	 * @param msgBytes - the encoded message
+	 * @return msg - the MessageContent object
+	 * @throws IllegalArgumentException - if the bytes are not a valid message
+	 */
+	public static MessageContent decode(byte[] msgBytes) {
+		return decode(msgBytes, 0, msgBytes.length);
+	}
+
+	/**
+	 * Decodes the message from a slice of a batch envelope. The image is a view of the
+	 * envelope.
+	 *
+	 * @param msg - the encoded message, backed by an array
+	 * @return msg - the MessageContent object
+	 * @throws IllegalArgumentException - if the bytes are not a valid message
+	 */
+	public static MessageContent decode(ByteBuffer msg) {
+		return decode(msg.array(), msg.arrayOffset() + msg.position(), msg.remaining());
+	}
+
+	/**
+	 * Decodes the message from the bytes at the given offset.
+	 *
+	 * @param bytes - the bytes holding the encoded message
+	 * @param offset - the offset of the message
+	 * @param length - the length of the message
+	 * @return msg - the MessageContent object
+	 * @throws IllegalArgumentException - if the bytes are not a valid message
+	 */
+	private static MessageContent decode(byte[] bytes, int offset, int length) {
+
+		MessageCodec decoder = new MessageCodec(bytes, offset, length);
+
+		try {
+			// read the header
+			int version = decoder.readByte();
+			if (version != FORMAT_VERSION) {
+				throw new IllegalArgumentException("Unknown message format version " + version);
+			}
+			MessageType msgType = MESSAGE_TYPES[decoder.readByte()];
+			int flags = decoder.readByte();
+			String fileName = decoder.readString();
+			String sender = decoder.readString();
+			String receiver = decoder.readString();
+
+			MessageContent msg = new MessageContent(fileName, msgType, sender, receiver);
+			msg.setAgreement((flags & FLAG_AGREEMENT) != 0);
+			msg.setAskTimedOut((flags & FLAG_ASK_TIMED_OUT) != 0);
+
+			// read the optional fields
+			if ((flags & FLAG_FILES) != 0) {
+				String[] files = new String[decoder.readCount()];
+				for (int i = 0; i < files.length; i ++) {
+					files[i] = decoder.readString();
+				}
+				msg.setFiles(files);
+			}
+			if ((flags & FLAG_RECIPIENTS) != 0) {
+				int count = decoder.readCount();
+				Map<String, String[]> recipients = new HashMap<>();
+				for (int i = 0; i < count; i ++) {
+					String recipient = decoder.readString();
+					String[] files = new String[decoder.readCount()];
+					for (int j = 0; j < files.length; j ++) {
+						files[j] = decoder.readString();
+					}
+					recipients.put(recipient, files);
+				}
+				msg.setRecipients(recipients);
+			}
+			if ((flags & FLAG_TIME_OUT) != 0) {
+				msg.setTimeOutMillis(decoder.readVarInt());
+			}
+			if ((flags & FLAG_IMG) != 0) {
+				msg.setImg(decoder.readImage(decoder.readLength()));
+			}
+
+			return msg;
+		} catch (IllegalArgumentException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			// such as an unknown message type
+			throw new IllegalArgumentException("Malformed message of " + length + " bytes", e);
+		}
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Helpers   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Makes sure that the buffer can take the given number of extra bytes.
+	 *
+	 * @param extra - the number of bytes to be written
+	 */
+	private void ensureCapacity(int extra) {
+		if (pos + extra > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+		}
+	}
+
+	private void writeByte(int b) {
+		ensureCapacity(1);
+		buf[pos ++] = (byte) b;
+	}
+
+	private void writeBytes(byte[] bytes, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, buf, pos, length);
+		pos += length;
+	}
+
+	/**
+	 * Writes a non-negative int as a varint, seven bits per byte.
+	 *
+	 * @param value - the value
+	 */
+	private void writeVarInt(int value) {
+		ensureCapacity(5);
+		while ((value & ~0x7F) != 0) {
+			buf[pos ++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[pos ++] = (byte) value;
+	}
+
+	/**
+	 * Writes a string as its UTF-8 length plus one, followed by its UTF-8 bytes.
+	 * ASCII strings are written without an intermediate array.
+	 *
+	 * @param str - the string, may be null
+	 */
+	private void writeString(String str) {
+
+		if (str == null) {
+			writeVarInt(NULL_LENGTH);
+			return;
+		}
+
+		// fast path for ASCII strings
+		int length = str.length();
+		boolean ascii = true;
+		for (int i = 0; i < length && ascii; i ++) {
+			ascii = str.charAt(i) < 0x80;
+		}
+		if (ascii) {
+			writeVarInt(length + 1);
+			ensureCapacity(length);
+			for (int i = 0; i < length; i ++) {
+				buf[pos ++] = (byte) str.charAt(i);
+			}
+			return;
+		}
+
+		byte[] utf8 = str.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(utf8.length + 1);
+		writeBytes(utf8, 0, utf8.length);
+	}
+
+	/**
+	 * Writes the format version, the type, the flags, the file name and the sender.
+	 * The agreement, the ask time out, the time out and the image flags are taken from the
+	 * message.
+	 *
+	 * @param msg - the message
+	 * @param flags - the flags of the fields that follow the sender
+	 */
+	private void writeHeader(MessageContent msg, int flags) {
+		if (msg.getAgreement()) {
+			flags |= FLAG_AGREEMENT;
+		}
+		if (msg.getAskTimedOut()) {
+			flags |= FLAG_ASK_TIMED_OUT;
+		}
+		if (msg.hasTimeOut()) {
+			flags |= FLAG_TIME_OUT;
+		}
+		if (msg.hasImg()) {
+			flags |= FLAG_IMG;
+		}
+		writeByte(FORMAT_VERSION);
+		writeByte(msg.getMessageType().ordinal());
+		writeByte(flags);
+		writeString(msg.getFileName());
+		writeString(msg.getSender());
+	}
+
+	/**
+	 * Writes the time out and the image of the message, if any, and takes the encoded
+	 * message out of the buffer. The image is the last field, copied once straight into the
+	 * message bytes.
+	 *
+	 * @param msg - the message
+	 * @return msgBytes - the encoded message
+	 */
+	private byte[] finish(MessageContent msg) {
+
+		if (msg.hasTimeOut()) {
+			writeVarInt(msg.getTimeOutMillis());
+		}
+
+		byte[] msgBytes;
+		if (msg.hasImg()) {
+			ImageBuffer img = msg.getImg();
+			writeVarInt(img.length());
+			msgBytes = Arrays.copyOf(buf, pos + img.length());
+			img.copyTo(msgBytes, pos);
+		}
+		else {
+			msgBytes = Arrays.copyOf(buf, pos);
+		}
+
+		// do not keep a large buffer around
+		if (buf.length > MAX_RETAINED_BUFFER_SIZE) {
+			buf = new byte[INITIAL_BUFFER_SIZE];
+		}
+		return msgBytes;
+	}
+
+	private int remaining() {
+		return limit - pos;
+	}
+
+	private int readByte() {
+		if (pos >= limit) {
+			throw new IllegalArgumentException("Truncated message");
+		}
+		return buf[pos ++] & 0xFF;
+	}
+
+	/**
+	 * Reads a count of items, each taking at least one byte, so the count is checked against
+	 * the bytes left before anything is allocated for the items.
+	 *
+	 * @return count - the count
+	 */
+	private int readCount() {
+		int count = readVarInt();
+		if (count < 0 || count > remaining()) {
+			throw new IllegalArgumentException("Invalid count " + count + " with "
+							   + remaining() + " bytes left");
+		}
+		return count;
+	}
+
+	/**
+	 * Reads the length of the bytes that follow, checked against the bytes left.
+	 *
+	 * @return length - the length
+	 */
+	private int readLength() {
+		int length = readVarInt();
+		checkLength(length);
+		return length;
+	}
+
+	private void checkLength(int length) {
+		if (length < 0 || length > remaining()) {
+			throw new IllegalArgumentException("Invalid length " + length + " with "
+							   + remaining() + " bytes left");
+		}
+	}
+
+	/**
+	 * Reads the image as a view of the message bytes, without copying it.
+	 *
+	 * @param length - the length of the image
+	 * @return img - the image view
+	 */
+	private ImageBuffer readImage(int length) {
+		checkLength(length);
+		ImageBuffer img = ImageBuffer.wrap(buf, pos, length);
+		pos += length;
+		return img;
+	}
+
+	private int readVarInt() {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	private String readString() {
+		int length = readVarInt();
+		if (length == NULL_LENGTH) {
+			return null;
+		}
+		checkLength(length - 1);
+		length -= 1;
+		String str = new String(buf, pos, length, StandardCharsets.UTF_8);
+		pos += length;
+		return str;
+	}
+
+}
@@ -1,4 +1,9 @@
 import java.util.List;
+import java.util.Map;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 /**
@@ -8,6 +13,12 @@ import java.io.Serializable;
  * The message content includes the type of the message, the sender, the receiver,
  * the name of the commit file, the sources, and relevant information.
  * 
+ * The commit image is held as a shared, read-only ImageBuffer and is never copied.
+ * A message shared by several receivers carries the source files of each of them as its
+ * recipients, and each receiver selects its own before handling the message.
+ * The serialized form still holds the image as a byte array, so that messages serialized
+ * by older versions can be read.
+ * 
  * @author YanningMao <yanningm@andrew.cmu.edu>
  * @date April 18, 2018
  *
@@ -20,27 +31,44 @@ public class MessageContent implements Serializable {
 	/* -------------------------------------------------------------------- */
 	
 	private static final long serialVersionUID = 8751573692821119157L;
+	
+	// the serialized form of older versions, where the image is a byte array
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("msgType", MessageType.class),
+		new ObjectStreamField("fileName", String.class),
+		new ObjectStreamField("sender", String.class),
+		new ObjectStreamField("receiver", String.class),
+		new ObjectStreamField("agreeMent", boolean.class),
+		new ObjectStreamField("img", byte[].class),
+		new ObjectStreamField("files", String[].class)
+	};
 
 	/* -------------------------------------------------------------------- */
 	/* ----------------------   Instance Variables   ---------------------- */
 	/* -------------------------------------------------------------------- */
 	
 	// the message type
-	private final MessageType msgType;
+	private MessageType msgType;
 
 	// commit file name
 	private String fileName;
 	
 	// message sender and message receiver
-	private final String sender;
-	private final String receiver;
+	private String sender;
+	private String receiver;
 	
 	// whether the UserNode agrees to commit
 	private boolean agreeMent;
 	// the image to be committed
-	private byte[] img;
+	private ImageBuffer img;
 	// the source files
 	private String[] files;
+	// the source files of each receiver of a shared message
+	private Map<String, String[]> recipients;
+	// the time the Server waits for the reply in milliseconds, 0 if not given
+	private int timeOutMillis;
+	// whether the vote is NO because the user did not answer before the deadline
+	private boolean askTimedOut;
 	
 
 	/* -------------------------------------------------------------------- */
@@ -78,11 +106,11 @@ public class MessageContent implements Serializable {
 	}
 	
 	/**
-	 * Sets the image to be committed.
+	 * Sets the image to be committed. The image is shared, not copied.
 	 * @param img
 	 */
-	public void setImg(byte[] img) {
-		this.img = img.clone();
+	public void setImg(ImageBuffer img) {
+		this.img = img;
 	}
 	
 	/**
@@ -101,6 +129,49 @@ public class MessageContent implements Serializable {
 		this.files = files.toArray(new String[files.size()]);
 	}
 	
+	/**
+	 * Sets the time the Server waits for the reply to the message.
+	 * @param timeOutMillis - the time out in milliseconds
+	 */
+	public void setTimeOutMillis(int timeOutMillis) {
+		this.timeOutMillis = timeOutMillis;
+	}
+	
+	/**
+	 * Sets whether the vote is NO because the user did not answer before the deadline.
+	 * @param askTimedOut
+	 */
+	public void setAskTimedOut(boolean askTimedOut) {
+		this.askTimedOut = askTimedOut;
+	}
+	
+	/**
+	 * Sets the source files of each receiver of a shared message.
+	 * @param recipients
+	 */
+	public void setRecipients(Map<String, String[]> recipients) {
+		this.recipients = recipients;
+	}
+	
+	/**
+	 * Makes the given receiver of a shared message the receiver of the message, with its
+	 * own source files.
+	 * @param receiver - the receiver
+	 * @return true - if the receiver is one of the recipients of the message
+	 */
+	public boolean selectRecipient(String receiver) {
+		
+		String[] recipientFiles = (recipients == null) ? null : recipients.get(receiver);
+		if (recipientFiles == null) {
+			return false;
+		}
+		
+		this.receiver = receiver;
+		this.files = recipientFiles;
+		this.recipients = null;
+		return true;
+	}
+	
 	
 	/* ---------------------------------------------------------------- */
 	/* --------------------------   Getters   ------------------------- */
@@ -121,6 +192,54 @@ public class MessageContent implements Serializable {
 		return this.agreeMent;
 	}
 	
+	/**
+	 * Checks whether the vote is NO because the user did not answer before the deadline.
+	 * @return true - if the user did not answer
+	 */
+	public boolean getAskTimedOut() {
+		return askTimedOut;
+	}
+	
+	/**
+	 * Checks whether the message carries a commit image.
+	 * @return true - if the image is set
+	 */
+	public boolean hasImg() {
+		return img != null;
+	}
+	
+	/**
+	 * Checks whether the message carries source files.
+	 * @return true - if the source files are set
+	 */
+	public boolean hasFiles() {
+		return files != null;
+	}
+	
+	/**
+	 * Checks whether the message carries the time the Server waits for the reply.
+	 * @return true - if the time out is set
+	 */
+	public boolean hasTimeOut() {
+		return timeOutMillis > 0;
+	}
+	
+	/**
+	 * Gets the time the Server waits for the reply to the message.
+	 * @return timeOutMillis - the time out in milliseconds, 0 if not given
+	 */
+	public int getTimeOutMillis() {
+		return timeOutMillis;
+	}
+	
+	/**
+	 * Checks whether the message is shared by several receivers.
+	 * @return true - if the recipients are set
+	 */
+	public boolean hasRecipients() {
+		return recipients != null;
+	}
+	
 	/**
 	 * Gets the name of the commit file.
 	 * @return name - commit file name
@@ -130,11 +249,11 @@ public class MessageContent implements Serializable {
 	}
 	
 	/**
-	 * Gets commit image.
+	 * Gets commit image. The image is shared, not copied.
 	 * @return img - the commit image
 	 */
-	public byte[] getImg() {
-		return img.clone();
+	public ImageBuffer getImg() {
+		return img;
 	}
 	
 	/**
@@ -160,6 +279,45 @@ public class MessageContent implements Serializable {
 	public String getReceiver() {
 		return receiver;
 	}
+	
+	
+	/* ---------------------------------------------------------------- */
+	/* -----------------------   Serialization   ---------------------- */
+	/* ---------------------------------------------------------------- */
+	
+	
+	/**
+	 * Writes the message in the serialized form of older versions.
+	 * @param out - the object stream
+	 * @throws IOException
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("msgType", msgType);
+		fields.put("fileName", fileName);
+		fields.put("sender", sender);
+		fields.put("receiver", receiver);
+		fields.put("agreeMent", agreeMent);
+		fields.put("img", img == null ? null : img.toByteArray());
+		fields.put("files", files);
+		out.writeFields();
+	}
+	
+	/**
+	 * Reads the message from the serialized form of older versions.
+	 * @param in - the object stream
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		msgType = (MessageType) fields.get("msgType", null);
+		fileName = (String) fields.get("fileName", null);
+		sender = (String) fields.get("sender", null);
+		receiver = (String) fields.get("receiver", null);
+		agreeMent = fields.get("agreeMent", false);
+		byte[] imgBytes = (byte[]) fields.get("img", null);
+		img = (imgBytes == null) ? null : ImageBuffer.wrap(imgBytes);
+		files = (String[]) fields.get("files", null);
+	}
 }
-
-
@@ -1,10 +1,11 @@
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * 
@@ -13,6 +14,10 @@ import java.io.ObjectOutputStream;
  * This class contains two helper methods that convert a message sent between a Server
  * and UserNode between MessageContent object and byte array object.
  * 
+ * Messages are packed in the binary wire format of MessageCodec. Messages packed with Java
+ * serialization by older versions are still unpacked. Several packed messages to the same node
+ * can be packed into one batch, which the receiver unpacks into its messages.
+ * 
  * @author YanningMao <yanningm@andrew.cmu.edu>
  * @date April 18, 2018
  *
@@ -27,30 +32,75 @@ public class MessageConvert {
 	 */
 	public static MessageContent unpackMessage(byte[] msgBytes) {
 		
-		// open read stream
-		MessageContent msg = null;
-		ByteArrayInputStream byteArrayIn = new ByteArrayInputStream(msgBytes);
+		// fall back to Java serialization for old messages
+		if (!MessageCodec.isEncoded(msgBytes)) {
+			return unpackSerializedMessage(msgBytes);
+		}
 		
-		// read the bytes and convert them
 		try {
-			ObjectInput in = new ObjectInputStream(byteArrayIn);
-			msg = (MessageContent) in.readObject();
-			in.close();
-		} catch (Exception e) {
-			System.err.println("Error when unserializing message bytes.");
+			return MessageCodec.decode(msgBytes);
+		} catch (IllegalArgumentException e) {
+			System.err.println("Error when decoding message bytes.");
 			System.err.println("Error  : " + e.getMessage());
 			e.printStackTrace();
+			return null;
 		}
+	}
+	
+	/**
+	 * Converts a message of a batch into a MessageContent object, without copying it out of
+	 * the batch.
+	 * 
+	 * @param msgBytes - the message, a slice of the batch
+	 * @return msgContent - the MessageContent object
+	 */
+	private static MessageContent unpackMessage(ByteBuffer msgBytes) {
 		
-		// close the stream
 		try {
-			byteArrayIn.close();
-		} catch (IOException e) {
-			// ignore close exceptions
+			return MessageCodec.decode(msgBytes);
+		} catch (IllegalArgumentException e) {
+			System.err.println("Error when decoding message bytes.");
+			System.err.println("Error  : " + e.getMessage());
+			e.printStackTrace();
+			return null;
 		}
+	}
+	
+	/**
+	 * Converts the received bytes into the messages they hold, which are several messages
+	 * for a batch and a single message otherwise. Messages that cannot be unpacked are
+	 * left out.
+	 * 
+	 * @param bytes - the received bytes
+	 * @return msgContents - the MessageContent objects
+	 */
+	public static List<MessageContent> unpackMessages(byte[] bytes) {
 		
-		return msg;
+		if (!MessageCodec.isBatch(bytes)) {
+			MessageContent msgContent = unpackMessage(bytes);
+			if (msgContent == null) {
+				return Collections.emptyList();
+			}
+			return Collections.singletonList(msgContent);
+		}
+		
+		List<ByteBuffer> msgs;
+		try {
+			msgs = MessageCodec.decodeBatch(bytes);
+		} catch (IllegalArgumentException e) {
+			System.err.println("Error when decoding message batch.");
+			System.err.println("Error  : " + e.getMessage());
+			return Collections.emptyList();
+		}
 		
+		List<MessageContent> msgContents = new ArrayList<>(msgs.size());
+		for (ByteBuffer msgBytes : msgs) {
+			MessageContent msgContent = unpackMessage(msgBytes);
+			if (msgContent != null) {
+				msgContents.add(msgContent);
+			}
+		}
+		return msgContents;
 	}
 	
 	/**
@@ -60,30 +110,62 @@ public class MessageConvert {
 	 * @return msgBytes - message byte array
 	 */
 	public static byte[] packMessage(MessageContent msg) {
+		return MessageCodec.encode(msg);
+	}
+	
+	/**
+	 * Packs several packed messages to the same node into one batch.
+	 * 
+	 * @param msgs - the packed messages
+	 * @return bytes - the batch
+	 */
+	public static byte[] packBatch(List<byte[]> msgs) {
+		return MessageCodec.encodeBatch(msgs);
+	}
+	
+	/**
+	 * Packs a message once for all its receivers, with the files of every receiver, so that
+	 * the same bytes are sent to each of them.
+	 * 
+	 * @param msg - the MessageContent object, without receiver and files
+	 * @param recipients - the receivers and their files, as encoded by MessageCodec
+	 * @return msgBytes - message byte array
+	 */
+	public static byte[] packShared(MessageContent msg, byte[] recipients) {
+		return MessageCodec.encodeShared(msg, recipients);
+	}
+	
+	/**
+	 * Converts a message packed with Java serialization into a MessageContent object.
+	 * 
+	 * @param msgBytes - the byte array of the message
+	 * @return msgContent - the MessageContent object
+	 */
+	private static MessageContent unpackSerializedMessage(byte[] msgBytes) {
 		
-		byte[] msgBytes = null;
+		// open read stream
+		MessageContent msg = null;
+		ByteArrayInputStream byteArrayIn = new ByteArrayInputStream(msgBytes);
 		
-		// convert message into byte array
-		ByteArrayOutputStream byteArrayOut = new ByteArrayOutputStream();
+		// read the bytes and convert them
 		try {
-			ObjectOutput out = new ObjectOutputStream(byteArrayOut);
-			out.writeObject(msg);
-			out.flush();
-			msgBytes = byteArrayOut.toByteArray();
-		} catch (IOException e) {
-			System.err.println("Error when serializing message : " + msg);
+			ObjectInput in = new ObjectInputStream(byteArrayIn);
+			msg = (MessageContent) in.readObject();
+			in.close();
+		} catch (Exception e) {
+			System.err.println("Error when unserializing message bytes.");
 			System.err.println("Error  : " + e.getMessage());
 			e.printStackTrace();
 		}
 		
 		// close the stream
 		try {
-			byteArrayOut.close();
+			byteArrayIn.close();
 		} catch (IOException e) {
 			// ignore close exceptions
 		}
 		
-		return msgBytes;
+		return msg;
+		
 	}
 }
-
@@ -0,0 +1,69 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * @file NodeIds.java
+ *
+ * This class interns the names of the User Nodes to small integer IDs.
+ *
+ * A User Node gets its ID the first time it appears in the sources of a commit, and keeps it
+ * for the life of the Server. The IDs are dense, starting from 0, so that the state of a
+ * commit over its User Nodes can be kept in bitsets indexed by ID instead of sets of names.
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class NodeIds {
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	// the ID looked up for a User Node that has never been interned
+	public static final int UNKNOWN = -1;
+
+
+	/* -------------------------------------------------------------------- */
+	/* -----------------------   Class Variables   ------------------------ */
+	/* -------------------------------------------------------------------- */
+
+	// the ID of each interned User Node
+	private static final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+	// the ID given to the next User Node
+	private static final AtomicInteger nextId = new AtomicInteger(0);
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Gets the ID of the User Node, giving it the next ID if it has none yet.
+	 *
+	 * @param node - the User Node
+	 * @return id - the ID of the User Node
+	 */
+	public static int intern(String node) {
+
+		Integer id = ids.get(node);
+		if (id != null) {
+			return id;
+		}
+		return ids.computeIfAbsent(node, name -> nextId.getAndIncrement());
+	}
+
+	/**
+	 * Gets the ID of the User Node without interning it.
+	 *
+	 * @param node - the User Node
+	 * @return id - the ID of the User Node, UNKNOWN if it has never been interned
+	 */
+	public static int lookup(String node) {
+		Integer id = ids.get(node);
+		return id == null ? UNKNOWN : id;
+	}
+
+}
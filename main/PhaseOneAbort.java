@@ -16,11 +16,14 @@ public class PhaseOneAbort extends CommitProcess {
 	/**
 	 * This constructor constructs a PhaseOneAbort object.
 	 * 
-	 * @param PL - the PrjectLib object
+	 * @param outbox - the batcher of the messages to the User Nodes
+	 * @param engine - the commit engine
+	 * @param groupCommit - the group commit of the log records
 	 * @param commitInfo - the commit information
 	 */
-	public PhaseOneAbort(ProjectLib PL, CommitInfo commitInfo) {
-		super(PL, commitInfo);
+	public PhaseOneAbort(MessageBatcher outbox, CommitEngine engine,
+			     GroupCommit<CommitLogRecord> groupCommit, CommitInfo commitInfo) {
+		super(outbox, engine, groupCommit, commitInfo);
 	}
 	
 	/**
@@ -28,20 +31,13 @@ public class PhaseOneAbort extends CommitProcess {
 	 * and waits for all the ACKs.
 	 */
 	@Override
-	public void run() {
+	public synchronized void run() {
 
 		/* ------------------------   Phase II   ------------------------ */
 		
-		// log the start of Phase II
-		IOHelper.logPrintln(commitInfo, PHASE_TWO_STR + COLON + CommitDecision.ABORT);
-		PL.fsync();
-		
-		// perform Phase II
-		phaseTwo(CommitDecision.ABORT);
-		
-		// log the end of the commit
-		IOHelper.logPrintln(commitInfo, DONE_STR);
-		PL.fsync();
+		// log the start of Phase II, and start it once the record is durable
+		phase = CommitPhase.LOGGING;
+		logDecision(CommitDecision.ABORT);
 	}
 
 }
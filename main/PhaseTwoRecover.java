@@ -13,17 +13,19 @@
  */
 public class PhaseTwoRecover extends CommitProcess {
 	
-	private CommitDecision commitDecision;
-	
 	/**
 	 * The constructor constructs a PhaseTwoRecover commit process.
 	 * 
-	 * @param PL - the ProjectLib object
+	 * @param outbox - the batcher of the messages to the User Nodes
+	 * @param engine - the commit engine
+	 * @param groupCommit - the group commit of the log records
 	 * @param commitInfo - the commit information
 	 * @param commitDecision - the commit decision
 	 */
-	public PhaseTwoRecover(ProjectLib PL, CommitInfo commitInfo, CommitDecision commitDecision) {
-		super(PL, commitInfo);
+	public PhaseTwoRecover(MessageBatcher outbox, CommitEngine engine,
+			       GroupCommit<CommitLogRecord> groupCommit,
+			       CommitInfo commitInfo, CommitDecision commitDecision) {
+		super(outbox, engine, groupCommit, commitInfo);
 		this.commitDecision = commitDecision;
 	}
 	
@@ -32,16 +34,12 @@ public class PhaseTwoRecover extends CommitProcess {
 	 * and waits for all the ACKs.
 	 */
 	@Override
-	public void run() {
+	public synchronized void run() {
 
 		/* ------------------------   Phase II   ------------------------ */
 		
-		// perform Phase II
+		// start Phase II, the end of the commit is logged once all ACKs arrive
 		phaseTwo(commitDecision);
-		
-		// log the end of the commit
-		IOHelper.logPrintln(commitInfo, DONE_STR);
-		PL.fsync();
 	}
 }
 
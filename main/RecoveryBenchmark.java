@@ -0,0 +1,143 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @file RecoveryBenchmark.java
+ *
+ * This class measures the recovery time of the commit log of the Server against the number
+ * of commits ever made, with the same number of unfinished commits each time.
+ *
+ * Each history is written to a fresh log directory. The completed commits log their BEGIN,
+ * DECISION and DONE records, appended in groups as the GroupCommit does, and the unfinished
+ * commits then log their BEGIN record only. Recovery reads the log with a new CommitLog, as
+ * a restarted Server does.
+ *
+ * Usage : java RecoveryBenchmark [completed commits] [unfinished commits]
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class RecoveryBenchmark {
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private static final int DEFAULT_COMPLETED = 1000000;
+	private static final int DEFAULT_UNFINISHED = 10;
+	// the smallest history, each next one ten times larger up to the completed commits
+	private static final int MIN_COMPLETED = 1000;
+	// the records appended together, as one group of the GroupCommit
+	private static final int RECORDS_PER_APPEND = 300;
+	private static final String[] SOURCES = {"a:1.jpg", "b:3.jpg", "b:4.jpg"};
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	public static void main(String[] args) throws IOException {
+
+		int completed = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_COMPLETED;
+		int unfinished = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_UNFINISHED;
+
+		List<Integer> histories = new ArrayList<>();
+		for (int size = MIN_COMPLETED; size < completed; size *= 10) {
+			histories.add(size);
+		}
+		histories.add(completed);
+
+		System.out.println("Recovery of the commit log with " + unfinished
+				   + " unfinished commits");
+		System.out.printf("%12s %12s %10s %10s %14s %12s%n", "completed", "write s",
+				  "log files", "log KB", "records read", "recovery ms");
+
+		// a first small history, to warm up the JIT
+		run(MIN_COMPLETED, unfinished);
+
+		for (int size : histories) {
+			long[] costs = run(size, unfinished);
+			System.out.printf("%12d %12.1f %10d %10d %14d %12.1f%n", size, costs[0] / 1e9,
+					  costs[1], costs[2] / 1024, costs[3], costs[4] / 1e6);
+		}
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Helpers   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Writes the history to a fresh log directory, recovers it and deletes the directory.
+	 *
+	 * @param completed - the number of completed commits
+	 * @param unfinished - the number of unfinished commits, logged after the completed ones
+	 * @return costs - the nanoseconds writing, the files and bytes of the log left, the
+	 * 		   records read and the nanoseconds recovering
+	 * @throws IOException - exception when writing or reading the log
+	 */
+	private static long[] run(int completed, int unfinished) throws IOException {
+
+		File logDir = Files.createTempDirectory("recovery-bench").toFile();
+		try {
+			long start = System.nanoTime();
+			write(logDir, completed, unfinished);
+			long writeNanos = System.nanoTime() - start;
+
+			File[] logFiles = logDir.listFiles();
+			long logBytes = 0;
+			for (File logFile : logFiles) {
+				logBytes += logFile.length();
+			}
+
+			start = System.nanoTime();
+			List<CommitLogRecord> records = new CommitLog(logDir.getPath()).recover();
+			long recoverNanos = System.nanoTime() - start;
+
+			return new long[] {writeNanos, logFiles.length, logBytes, records.size(),
+					   recoverNanos};
+		} finally {
+			for (File logFile : logDir.listFiles()) {
+				logFile.delete();
+			}
+			logDir.delete();
+		}
+	}
+
+	/**
+	 * Logs the completed commits, then the unfinished ones.
+	 *
+	 * @param logDir - the log directory
+	 * @param completed - the number of completed commits
+	 * @param unfinished - the number of unfinished commits
+	 * @throws IOException - exception when writing the log
+	 */
+	private static void write(File logDir, int completed, int unfinished) throws IOException {
+
+		CommitLog log = new CommitLog(logDir.getPath());
+		log.recover();
+
+		List<CommitLogRecord> group = new ArrayList<>(RECORDS_PER_APPEND);
+		for (int i = 0; i < completed + unfinished; i ++) {
+			String fileName = "collage-" + i + ".jpg";
+			group.add(CommitLogRecord.begin(new CommitInfo(fileName, SOURCES)));
+			if (i < completed) {
+				group.add(CommitLogRecord.decision(fileName, CommitDecision.YES));
+				group.add(CommitLogRecord.done(fileName));
+			}
+			if (group.size() >= RECORDS_PER_APPEND) {
+				log.append(group);
+				group.clear();
+			}
+		}
+		if (!group.isEmpty()) {
+			log.append(group);
+		}
+	}
+
+}
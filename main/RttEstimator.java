@@ -0,0 +1,207 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * @file RttEstimator.java
+ *
+ * This class estimates the round-trip time of each User Node in each phase, and derives the
+ * time outs of the commits from it.
+ *
+ * The Server measures the time from sending a commit query to a User Node until its vote
+ * arrives, which includes the time the user takes to answer, and the time from sending a
+ * commit decision until its ACK arrives. The two are estimated apart, so that fast ACKs do
+ * not shorten the time out of Phase I, and slow answers do not lengthen the re-sends of
+ * Phase II. For each User Node and phase, the estimator keeps a smoothed mean and a smoothed
+ * mean deviation of the samples, as the retransmission time out of TCP does (RFC 6298). The
+ * time out is the mean plus four times the deviation, kept between MIN_TIME_OUT_MILLIS and
+ * the static time out. User Nodes that have not been measured yet in a phase get the static
+ * time out.
+ *
+ * The samples of re-sent messages are not taken, since the reply may belong to either send,
+ * nor those of the votes a User Node sent NO at its deadline for asking the user, which
+ * measure the deadline rather than the round trip.
+ *
+ * Messages that are not answered are re-sent with exponential backoff from the time out of the
+ * User Node, up to MAX_RESEND_DELAY_MILLIS. Each delay is jittered between all and one and a
+ * half of its value, so that the commits waiting on a User Node that is down do not re-send in
+ * lockstep, while no message is re-sent before the time out of the User Node.
+ * The estimator also keeps the last time each User Node was heard from, so that the backoff
+ * starts over once the User Node is back.
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class RttEstimator {
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	// the lowest time out given to a User Node
+	public static final long MIN_TIME_OUT_MILLIS = 200;
+	// the longest delay between two sends of a message, before the jitter
+	public static final long MAX_RESEND_DELAY_MILLIS = 60000;
+
+	// the gains of the smoothed mean and deviation
+	private static final double ALPHA = 1.0 / 8;
+	private static final double BETA = 1.0 / 4;
+	// the weight of the deviation in the time out
+	private static final int K = 4;
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------   Instance Variables   ----------------------- */
+	/* -------------------------------------------------------------------- */
+
+	// the time out of the User Nodes that have not been measured
+	private final long staticTimeOutMillis;
+	// the round-trip time of each User Node measured so far, from the query to the vote
+	private final ConcurrentMap<String, Rtt> voteRtts;
+	// the round-trip time of each User Node measured so far, from the decision to the ACK
+	private final ConcurrentMap<String, Rtt> ackRtts;
+	// the last time each User Node was heard from, in the time of System.nanoTime
+	private final ConcurrentMap<String, Long> lastHeard;
+
+
+	/* -------------------------------------------------------------------- */
+	/* -------------------------   Constructor   -------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Constructs the estimator.
+	 *
+	 * @param staticTimeOutMillis - the time out of the User Nodes that have not been measured,
+	 * 				which is also the highest time out
+	 */
+	public RttEstimator(long staticTimeOutMillis) {
+		this.staticTimeOutMillis = staticTimeOutMillis;
+		this.voteRtts = new ConcurrentHashMap<>();
+		this.ackRtts = new ConcurrentHashMap<>();
+		this.lastHeard = new ConcurrentHashMap<>();
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Takes a round-trip time sample of the User Node in the phase.
+	 *
+	 * @param user - the User Node
+	 * @param phase - PHASE_ONE for a vote, PHASE_TWO for an ACK
+	 * @param sampleNanos - the round-trip time in nanoseconds
+	 */
+	public void sample(String user, CommitPhase phase, long sampleNanos) {
+		getRtts(phase).computeIfAbsent(user, name -> new Rtt()).sample(sampleNanos / 1e6);
+	}
+
+	/**
+	 * Records that a reply of the User Node just arrived.
+	 *
+	 * @param user - the User Node
+	 */
+	public void heardFrom(String user) {
+		lastHeard.put(user, System.nanoTime());
+	}
+
+	/**
+	 * Gets the last time the User Node was heard from.
+	 *
+	 * @param user - the User Node
+	 * @return lastHeard - the time in the time of System.nanoTime, null if never heard from
+	 */
+	public Long getLastHeardNanos(String user) {
+		return lastHeard.get(user);
+	}
+
+	/**
+	 * Gets the jittered delay before the next send of a commit decision the User Node has
+	 * not answered. The delay doubles with each attempt from the Phase II time out of the
+	 * User Node, up to MAX_RESEND_DELAY_MILLIS, and is then jittered upwards by up to half.
+	 *
+	 * @param user - the User Node
+	 * @param attempt - the number of sends not answered so far, 0 after the first send
+	 * @return delay - the delay in nanoseconds
+	 */
+	public long getResendDelayNanos(String user, int attempt) {
+
+		long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(MAX_RESEND_DELAY_MILLIS);
+		long delayNanos = getTimeOutNanos(user, CommitPhase.PHASE_TWO);
+		for (int i = 0; i < attempt && delayNanos < maxDelayNanos; i ++) {
+			delayNanos *= 2;
+		}
+		delayNanos = Math.min(delayNanos, maxDelayNanos);
+
+		// between all and one and a half of the delay, never before the time out
+		return delayNanos + ThreadLocalRandom.current().nextLong(delayNanos / 2 + 1);
+	}
+
+	/**
+	 * Gets the time out of the User Node in the phase.
+	 *
+	 * @param user - the User Node
+	 * @param phase - PHASE_ONE for a vote, PHASE_TWO for an ACK
+	 * @return timeOut - the time out in nanoseconds
+	 */
+	public long getTimeOutNanos(String user, CommitPhase phase) {
+
+		Rtt rtt = getRtts(phase).get(user);
+		if (rtt == null) {
+			return TimeUnit.MILLISECONDS.toNanos(staticTimeOutMillis);
+		}
+
+		double timeOutMillis = Math.min(staticTimeOutMillis,
+						Math.max(MIN_TIME_OUT_MILLIS, rtt.getTimeOutMillis()));
+		return (long) (timeOutMillis * 1e6);
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Helpers   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private ConcurrentMap<String, Rtt> getRtts(CommitPhase phase) {
+		return phase.equals(CommitPhase.PHASE_ONE) ? voteRtts : ackRtts;
+	}
+
+
+	/* ----------------------------   Helper Class   ---------------------------- */
+
+	/**
+	 * The smoothed round-trip time of a User Node.
+	 *
+	 * @author YanningMao
+	 *
+	 */
+	private static class Rtt {
+
+		// the smoothed mean and mean deviation in milliseconds
+		private double srtt;
+		private double rttvar;
+		private boolean measured;
+
+		private synchronized void sample(double sampleMillis) {
+
+			// the first sample sets the mean, with half of it as the deviation
+			if (!measured) {
+				srtt = sampleMillis;
+				rttvar = sampleMillis / 2;
+				measured = true;
+				return;
+			}
+
+			rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - sampleMillis);
+			srtt = (1 - ALPHA) * srtt + ALPHA * sampleMillis;
+		}
+
+		private synchronized double getTimeOutMillis() {
+			return srtt + K * rttvar;
+		}
+	}
+
+}
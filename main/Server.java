@@ -4,7 +4,11 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.imageio.ImageIO;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
@@ -20,11 +24,23 @@ import java.io.FileNotFoundException;
  * commit agreement messages, then distributes the commit decision, and collects all the
  * ACKs from the User Nodes.
  * 
+ * The commits do not own threads. Each commit is a state machine driven by the messages
+ * from the User Nodes and by its time out events, which run on the shared CommitEngine.
+ * 
  * The server has a time out mechanism that controls the time it takes for a User Node to
  * reply. If a User Node times out to reply, the Server either send commit abort if the
  * time out happened during Phase I, or re-send the commit decision to the User Node
  * if the time out happened during Phase II.
  * 
+ * The records of all the commits are kept in a single segmented write-ahead log, the
+ * CommitLog.
+ * 
+ * Only the commits in progress are kept in memory. Once the end of a commit is logged, the
+ * commit is retired into a bounded history of the latest commit decisions, which tells the
+ * late messages of finished commits from the messages of unknown commits. The images that
+ * several commits in progress may share are kept once per content in the ImageStore, and
+ * each of those commits only holds a handle on its image while it waits for the votes.
+ * 
  * The server also has a self-recovery mechanism. After the Server restarts, it restores
  * the unfinished commits. It either sends commit abort if the failure happened during
  * Phase I, or re-send the commit decision to the User Node if the failure happened
@@ -47,9 +63,13 @@ public class Server implements ProjectLib.CommitServing {
 
 	// the time to wait between checking if recover has ended 
 	private static final long RECOVER_MILLIS = 50;
+	// the number of finished commits whose decisions are remembered
+	private static final int MAX_FINISHED_COMMITS = 4096;
 	private static final String COLON = ":";
 	private static final String COMMA = ",";
 	private static final String LOG_DIR = "log";
+	// the image store is scratch space in the temporary directory, one per Server port
+	private static final String IMAGE_STORE_PREFIX = "image-store-";
 	private static final String TXT_FILE_SUFFIX = ".txt";
 	private static final String FILE_NAME_STR = "File Name";
 	private static final String SOURCES_STR = "Sources";
@@ -70,12 +90,21 @@ public class Server implements ProjectLib.CommitServing {
 	private static ProjectLib.MessageHandling msgHandler;
 	// the ProjectLib object
 	private static ProjectLib PL;
+	// sends the messages to the User Nodes in batches
+	private static MessageBatcher outbox;
+	// the write-ahead log of all commits
+	private static CommitLog commitLog;
+	// makes the log records of all commits durable in groups
+	private static GroupCommit<CommitLogRecord> groupCommit;
+	// the images of the commits in progress, stored once per content
+	private static ImageStore imageStore;
 	
-	// stores information about each commit
-	private static ConcurrentMap<String, CommitInfo> commitRecords = new ConcurrentHashMap<>();
-	// stores runnable thread for each commit
-	private static ConcurrentMap<String, Thread> commitThreads = new ConcurrentHashMap<>();
+	// stores the commit process for each commit
 	private static ConcurrentMap<String, CommitProcess> commitProcesses = new ConcurrentHashMap<>();
+	// the decisions of the latest finished commits, the first finished first
+	private static Map<String, CommitDecision> finishedCommits = newFinishedCommits();
+	// runs the events of all the commit processes
+	private static CommitEngine engine = new CommitEngine(ExecutionMode.fromConfig());
 
 
 	/* -------------------------------------------------------------------- */
@@ -107,6 +136,7 @@ public class Server implements ProjectLib.CommitServing {
 		
 		// create ProjectLib object
 		PL = new ProjectLib(port, server, msgHandler);
+		outbox = new MessageBatcher(PL);
 		
 		// create log directory
 		File logDir = new File(LOG_DIR);
@@ -115,6 +145,12 @@ public class Server implements ProjectLib.CommitServing {
 			PL.fsync();
 		}
 		
+		// open the commit log, records are appended once it is recovered
+		commitLog = new CommitLog(LOG_DIR);
+		groupCommit = new GroupCommit<>(PL::fsync, commitLog::append);
+		imageStore = new ImageStore(new File(System.getProperty("java.io.tmpdir"),
+						     IMAGE_STORE_PREFIX + port).getPath());
+		
 		// recover from failure
 		try {
 			recoverFromLog();
@@ -149,6 +185,55 @@ public class Server implements ProjectLib.CommitServing {
 		return;
 	}
 	
+	/**
+	 * Keeps the commit in progress, until the end of the commit is logged.
+	 * 
+	 * @param commitInfo - the commit information
+	 * @param commitProcess - the commit process
+	 */
+	private static void track(CommitInfo commitInfo, CommitProcess commitProcess) {
+		
+		String fileName = commitInfo.getFileName();
+		commitProcesses.put(fileName, commitProcess);
+		
+		commitProcess.getCompletion().thenRun(() -> retire(fileName, commitProcess));
+	}
+	
+	/**
+	 * Retires the finished commit into the history of commit decisions, so that its
+	 * information, image and message queues are freed.
+	 * 
+	 * @param fileName - the commit file name
+	 * @param commitProcess - the finished commit process
+	 */
+	private static void retire(String fileName, CommitProcess commitProcess) {
+		
+		finishedCommits.put(fileName, commitProcess.getCommitDecision());
+		commitProcesses.remove(fileName, commitProcess);
+	}
+	
+	/**
+	 * Creates the history of commit decisions, which forgets the commit that finished first
+	 * once it holds more than MAX_FINISHED_COMMITS commits. The late messages of a commit
+	 * only come shortly after it finished, so a lookup does not keep a commit any longer.
+	 * 
+	 * @return finishedCommits - the empty history
+	 */
+	private static Map<String, CommitDecision> newFinishedCommits() {
+		
+		// iterates in insertion order, so the eldest entry is the commit that finished first
+		Map<String, CommitDecision> history = new LinkedHashMap<String, CommitDecision>() {
+			
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CommitDecision> eldest) {
+				return size() > MAX_FINISHED_COMMITS;
+			}
+		};
+		return Collections.synchronizedMap(history);
+	}
+	
 	/**
 	 * Gets the extension of the file.
 	 * 
@@ -183,33 +268,133 @@ public class Server implements ProjectLib.CommitServing {
 	/**
 	 * Restores the Server environment from last failure.
 	 * 
-	 * This recovery process reads the commit information of each unfinished commit,
-	 * and finds where each commit terminated last time. It then restarts each unfinished
-	 * commit process.
+	 * This recovery process reads the records of the commit log, and finds where each
+	 * unfinished commit terminated last time. It then restarts each unfinished commit process.
+	 * Unfinished commits found in the text logs of older versions are moved into the commit
+	 * log first.
 	 * 
 	 * @throws Exception
 	 */
 	private static void recoverFromLog() throws Exception {
 	
+		// read the commit log
+		List<CommitLogRecord> records = commitLog.recover();
+		
+		// move the commits of the old text logs into the commit log
+		List<CommitLogRecord> legacyRecords = migrateLegacyLogs();
+		records.addAll(legacyRecords);
+		
+		// reconstruct the unfinished commits based on log
+		Map<String, CommitInfo> unfinishedCommits = new LinkedHashMap<>();
+		Map<String, CommitDecision> commitDecisions = new HashMap<>();
+		
+		for (CommitLogRecord record : records) {
+			
+			String fileName = record.getFileName();
+			
+			switch (record.getType()) {
+				case BEGIN:
+					unfinishedCommits.put(fileName,
+							      new CommitInfo(fileName, record.getSources()));
+					break;
+				case DECISION:
+					commitDecisions.put(fileName, record.getDecision());
+					break;
+				case DONE:
+					unfinishedCommits.remove(fileName);
+					CommitDecision decision = commitDecisions.remove(fileName);
+					if (decision != null) {
+						finishedCommits.put(fileName, decision);
+					}
+					break;
+				default:
+					break;
+			}
+		}
+		
+		// store all recovered commits and wait for finish
+		List<CommitProcess> recoverCommits = new ArrayList<>();
+		
+		// restart each unfinished commit
+		for (CommitInfo commitInfo : unfinishedCommits.values()) {
+			
+			String fileName = commitInfo.getFileName();
+			CommitDecision commitDecision = commitDecisions.get(fileName);
+			
+			// if already started Phase II, recover the commit
+			if (commitDecision != null) {
+
+				// according to decision, restart the commit
+				CommitProcess commitProcess = new PhaseTwoRecover(outbox, engine, groupCommit,
+										  commitInfo, commitDecision);
+				
+				recoverCommits.add(commitProcess);
+				track(commitInfo, commitProcess);
+				
+			}
+			
+			// if stopped during Phase I, abort the commit
+			else {
+				
+				// make sure the image was not saved
+				File imgFile = new File(fileName);
+				if (imgFile != null && imgFile.exists()) {
+					imgFile.delete();
+				}
+				
+				// abort the commit
+				CommitProcess commitProcess = new PhaseOneAbort(outbox, engine, groupCommit,
+										commitInfo);
+				
+				recoverCommits.add(commitProcess);
+				track(commitInfo, commitProcess);
+				
+			}
+
+		}
+		
+		// wait until all recovered commits finish
+		for (CommitProcess commitProcess : recoverCommits) {
+			engine.start(commitProcess);
+		}
+		for (CommitProcess commitProcess : recoverCommits) {
+			commitProcess.getCompletion().join();
+		}
+		
+		// set the flag to recover finished
+		recoveryFinished.set(true);
+	}
+	
+	/**
+	 * Moves the unfinished commits of the text logs written by older versions, one file
+	 * per commit, into the commit log, and deletes the text logs.
+	 * 
+	 * @return records - the commit log records of the unfinished commits
+	 * @throws Exception
+	 */
+	private static List<CommitLogRecord> migrateLegacyLogs() throws Exception {
+	
+		List<CommitLogRecord> records = new ArrayList<>();
+		
 		// the log directory
 		File logFolder = new File(LOG_DIR);
 		File[] logFiles = logFolder.listFiles();
 		
-		// nothing to recover
+		// nothing to migrate
 		if (logFiles == null || logFiles.length == 0) {
-			return;
+			return records;
 		}
 		
-		// store all recovered commits and wait for finish
-		List<Thread> recoverCommits = new ArrayList<>();
+		List<File> legacyLogs = new ArrayList<>();
 		
-		// recover each log
+		// read each log
 		for (File logFile : logFiles) {
 			
 			// ignore non-TXT files
 			if ((!logFile.isFile()) || (!logFile.getName().endsWith(TXT_FILE_SUFFIX))) {
 				continue;
 			}
+			legacyLogs.add(logFile);
 			
 			// read the content
 			Scanner sc;
@@ -230,7 +415,6 @@ public class Server implements ProjectLib.CommitServing {
 			boolean isDone = false;
 			
 			CommitDecision commitDecision = null;
-			CommitInfo commitInfo = null;
 			
 			// reconstruct the environment based on log
 			while (sc.hasNextLine()) {
@@ -259,66 +443,30 @@ public class Server implements ProjectLib.CommitServing {
 			}
 			sc.close();
 			
-			
-			// restart the commit based on log
-			if (isDone) {
+			// only the unfinished commits that reached Phase I are restarted
+			if (isDone || !(reachedPhaseOne || reachedPhaseTwo)) {
 				continue;
 			}
-			// restore commit information
-			else {
-				commitInfo = new CommitInfo(fileName, sources);
-			}
 			
-			// if already started Phase II, recover the commit
+			records.add(CommitLogRecord.begin(new CommitInfo(fileName, sources)));
 			if (reachedPhaseTwo) {
-
-				commitRecords.put(fileName, commitInfo);
-				
-				// according to decision, restart the commit
-				CommitProcess commitProcess = new PhaseTwoRecover(PL, commitInfo, commitDecision);
-				Thread commitThread = new Thread(commitProcess);
-				
-				recoverCommits.add(commitThread);
-				commitProcesses.put(fileName, commitProcess);
-				commitThreads.put(fileName, commitThread);
-				// commitThread.start();
-				
+				records.add(CommitLogRecord.decision(fileName, commitDecision));
 			}
-			
-			// if stopped during Phase I, abort the commit
-			else if (reachedPhaseOne) {
-				
-				commitRecords.put(fileName, commitInfo);
-				
-				// make sure the image was not saved
-				File imgFile = new File(fileName);
-				if (imgFile != null && imgFile.exists()) {
-					imgFile.delete();
-				}
-				
-				// abort the commit
-				CommitProcess commitProcess = new PhaseOneAbort(PL, commitInfo);
-				Thread commitThread = new Thread(commitProcess);
-				
-				recoverCommits.add(commitThread);
-				commitProcesses.put(fileName, commitProcess);
-				commitThreads.put(fileName, commitThread);
-				// commitThread.start();
-				
-			}
-
 		}
 		
-		// wait until all recovered commits finish
-		for (Thread thread : recoverCommits) {
-			thread.start();
+		// make the records durable before deleting the text logs
+		if (!records.isEmpty()) {
+			commitLog.append(records);
+			PL.fsync();
+		}
+		for (File logFile : legacyLogs) {
+			logFile.delete();
 		}
-		for (Thread thread : recoverCommits) {
-			thread.join();
+		if (!legacyLogs.isEmpty()) {
+			PL.fsync();
 		}
 		
-		// set the flag to recover finished
-		recoveryFinished.set(true);
+		return records;
 	}
 
 	/**
@@ -344,14 +492,13 @@ public class Server implements ProjectLib.CommitServing {
 		
 		// store commit information
 		CommitInfo commitInfo = new CommitInfo(fname, sources);
-		commitRecords.put(fname, commitInfo);
 		
-		// start a thread to process commit
-		CommitProcess commitProcess = new FullCommitProcess(PL, commitInfo, img);
-		Thread commitThread = new Thread(commitProcess);
-		commitProcesses.put(fname, commitProcess);
-		commitThreads.put(fname, commitThread);
-		commitThread.start();
+		// start the commit process on the engine
+		CommitProcess commitProcess = new FullCommitProcess(outbox, engine, groupCommit,
+								     commitInfo, ImageBuffer.wrap(img),
+								     imageStore);
+		track(commitInfo, commitProcess);
+		engine.start(commitProcess);
 		
 	}
 
@@ -366,22 +513,45 @@ public class Server implements ProjectLib.CommitServing {
 	 */
 	private static class ServerMessageReceiver implements ProjectLib.MessageHandling {
 
+		/**
+		 * Routes each message of the batch to the commit process it belongs to. The messages
+		 * are decoded without holding any lock, and the commit process only queues them, so
+		 * messages of different commits are received concurrently.
+		 * 
+		 * @param rcvMsg - the message or batch of messages from a User Node
+		 * @return true - if all the messages are routed to a commit process
+		 * 	   false - otherwise
+		 */
 		@Override
-		public synchronized boolean deliverMessage(ProjectLib.Message rcvMsg) {
+		public boolean deliverMessage(ProjectLib.Message rcvMsg) {
 
 			// get sender address and message content
 			byte[] msgBytes = rcvMsg.body;
 			
-			// convert message content from bytes to object
-			MessageContent msgContent = MessageConvert.unpackMessage(msgBytes);
-
-			try {
-				commitProcesses.get(msgContent.getFileName()).receiveMessage(msgContent);
-				return true;
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+			// convert message contents from bytes to objects
+			List<MessageContent> msgContents = MessageConvert.unpackMessages(msgBytes);
+			if (msgContents.isEmpty()) {
 				return false;
 			}
+
+			boolean routed = true;
+			for (MessageContent msgContent : msgContents) {
+				
+				// drop the late messages of finished commits, and ignore unknown commits
+				CommitProcess commitProcess = commitProcesses.get(msgContent.getFileName());
+				if (commitProcess == null && finishedCommits.containsKey(msgContent.getFileName())) {
+					continue;
+				}
+				if (commitProcess == null) {
+					System.err.println("Server received a message of unknown commit "
+							   + msgContent.getFileName() + " from " + rcvMsg.addr + ".");
+					routed = false;
+					continue;
+				}
+				
+				commitProcess.receiveMessage(msgContent);
+			}
+			return routed;
 			
 		}
 
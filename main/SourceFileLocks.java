@@ -0,0 +1,94 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * @file SourceFileLocks.java
+ *
+ * This class is the lock manager of the source files of a User Node.
+ *
+ * The source files are hashed onto a fixed number of lock stripes. A message handler locks
+ * the stripes of all the source files it touches, so that handlers of messages over disjoint
+ * files run concurrently, while handlers over the same file wait for each other. The stripes
+ * are always locked in increasing order, so that handlers locking several files never
+ * deadlock.
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class SourceFileLocks {
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	public static final int NUM_STRIPES = 1024;
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------   Instance Variables   ----------------------- */
+	/* -------------------------------------------------------------------- */
+
+	private final ReentrantLock[] stripes;
+
+
+	/* -------------------------------------------------------------------- */
+	/* -------------------------   Constructor   -------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Constructs the lock manager with NUM_STRIPES stripes.
+	 */
+	public SourceFileLocks() {
+		stripes = new ReentrantLock[NUM_STRIPES];
+		for (int i = 0; i < NUM_STRIPES; i ++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Locks all the source files, waiting for the handlers holding any of them.
+	 *
+	 * @param fileNames - the source file names
+	 * @return stripes - the locked stripes, to be passed to unlock
+	 */
+	public int[] lock(String[] fileNames) {
+
+		// the distinct stripes of the files, in increasing order
+		int[] locked = new int[fileNames.length];
+		for (int i = 0; i < fileNames.length; i ++) {
+			locked[i] = Math.floorMod(fileNames[i].hashCode(), NUM_STRIPES);
+		}
+		Arrays.sort(locked);
+		int numLocked = 0;
+		for (int i = 0; i < locked.length; i ++) {
+			if (i == 0 || locked[i] != locked[i - 1]) {
+				locked[numLocked ++] = locked[i];
+			}
+		}
+		locked = Arrays.copyOf(locked, numLocked);
+
+		for (int stripe : locked) {
+			stripes[stripe].lock();
+		}
+		return locked;
+	}
+
+	/**
+	 * Unlocks the stripes locked by lock.
+	 *
+	 * @param locked - the locked stripes
+	 */
+	public void unlock(int[] locked) {
+		for (int i = locked.length - 1; i >= 0; i --) {
+			stripes[locked[i]].unlock();
+		}
+	}
+
+}
@@ -1,10 +1,12 @@
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -23,8 +25,21 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * The User Node only listens to the command from the Server and replies to the command. It never
  * the initiative to send a message to the Server.
  * 
+ * The messages are handled on the threads of the node's executor, which are platform or
+ * virtual threads depending on the ExecutionMode, so that the ProjectLib delivery thread
+ * never waits for the locks of a handler. The users are asked about the commit queries on a
+ * bounded pool of their own, so that a slow user never holds a handler, and a user who does
+ * not answer before the deadline votes NO. A commit query only starts the question, so it is
+ * taken on the delivery thread itself, and the path of a query is run once at start-up, so
+ * that the first commit does not pay for starting the threads and loading the classes.
+ * Handlers lock the source files they touch, so that messages over disjoint files are
+ * handled concurrently and only messages over the same files wait.
+ * 
  * The User Node has a recover mechanism using log that records its local file status and restores
- * it after restart.
+ * it after restart. All the status changes made for a message are logged as one record, which
+ * is made durable with the records of the other messages handled at the same time, before the
+ * User Node replies. The log is compacted into snapshots by the UserNodeLog, so that the restart
+ * time and the disk usage stay bounded.
  * 
  * @author YanningMao <yanningm@andrew.cmu.edu>
  * @date April 18, 2018
@@ -41,11 +56,21 @@ public class UserNode implements ProjectLib.MessageHandling {
 	
 	// the time to wait between checking if recover has ended 
 	private static final long RECOVER_MILLIS = 50;
+	// the number of handler threads in the platform execution mode
+	private static final int NUM_HANDLERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+	// the number of users asked at the same time
+	private static final int NUM_ASKERS = 16;
+	// the longest time the user has to answer a commit query, also the shortest time out
+	// of Phase I on the Server
+	protected static final long ASK_USER_DEADLINE_MILLIS = 5000;
+	// the share of the Server's time out of Phase I the user has to answer, so that the NO
+	// vote arrives before the Server aborts anyway
+	private static final double ASK_USER_TIME_OUT_SHARE = 0.8;
+	// the file and node names of the vote of the warm-up
+	private static final String WARM_UP_NAME = "warm-up";
 	private static final String COLON = ":";
-	private static final String SLASH = "/";
 	private static final String LOG_DIR = "log";
-	private static final String LOG_FNAME = "log.txt";
-	private static final String LOG_FPATH = LOG_DIR + SLASH + LOG_FNAME;
+	private static final String NEW_LINE = System.lineSeparator();
 
 	/* -------------------------------------------------------------------- */
 	/* -----------------------   Class Variables   ------------------------ */
@@ -53,12 +78,32 @@ public class UserNode implements ProjectLib.MessageHandling {
 	
 	private static int port;
 	private static ProjectLib PL;
+	// sends the replies to the Server in batches
+	private static MessageBatcher outbox;
+	// the log of the source file status
+	private static UserNodeLog nodeLog;
+	// makes the log records of the node durable in groups
+	private static GroupCommit<String> groupCommit;
 	
 	// indicator for whether recovery has finished
 	private static AtomicBoolean recoverFinished = new AtomicBoolean(false);
 	
 	// stores the source files waiting for the Server's decision for whether to commit
 	private static ConcurrentMap<String, String> filesPrepared = new ConcurrentHashMap<>();
+	
+	// the commits whose queries have not been voted on yet
+	private static Set<String> queriesPending = ConcurrentHashMap.newKeySet();
+	// the commits decided by the Server before the User Node voted, as the Server aborts
+	// on the first NO vote
+	private static Set<String> decidedBeforeVote = ConcurrentHashMap.newKeySet();
+	
+	// locks the source files touched by each handler
+	private static SourceFileLocks fileLocks = new SourceFileLocks();
+	
+	// runs the handlers of the messages from the Server
+	private static ExecutorService handlers = ExecutionMode.fromConfig().newExecutor(NUM_HANDLERS);
+	// asks the users for agreement on the commit queries
+	private static ExecutorService askers = ExecutionMode.PLATFORM.newExecutor(NUM_ASKERS);
 
 	/* -------------------------------------------------------------------- */
 	/* ----------------------   Instance Variables   ---------------------- */
@@ -108,6 +153,9 @@ public class UserNode implements ProjectLib.MessageHandling {
 		// construct ProjectLib object
 		ProjectLib.MessageHandling node = new UserNode(userID);
 		PL = new ProjectLib(port, userID, node);
+		outbox = new MessageBatcher(PL);
+		nodeLog = new UserNodeLog(LOG_DIR, filesPrepared);
+		groupCommit = new GroupCommit<>(PL::fsync, nodeLog);
 		
 		// create log directory
 		File logDir = new File(LOG_DIR);
@@ -118,6 +166,7 @@ public class UserNode implements ProjectLib.MessageHandling {
 		
 		// recovery
 		recoverFromLog();
+		warmUp();
 		recoverFinished.set(true);
 
 	}
@@ -132,83 +181,84 @@ public class UserNode implements ProjectLib.MessageHandling {
 	 * Recovers from failure of the UserNode. Restores the running environment and the
 	 * status of the UserNode. Specifically, reads the files on the UserNode that had
 	 * been agreed to contribute to a commit but is still waiting.
-	 * Each line in the log file contains a pair of the source file name and the commit
-	 * file name, separated by a colon.
+	 * The prepared source files are read from the last snapshot and the log after it.
 	 */
 	private static void recoverFromLog() {
 
-		// the log file
-		File logFile = new File(LOG_FPATH);
-		
-		// nothing to recover
-		if (!logFile.exists()) {
-			return;
-		}
-		
-		// map to keep track of log
-		Map<String, Map<String, Integer>> recoverMap = new HashMap<>();
-		
-		// recover the status
-		Scanner sc;
-		try {
-			sc = new Scanner(logFile);
-		} catch (FileNotFoundException e) {
-			return;
-		}
-		
-		// track the addition to and removal from the prepared list of source files 
-		while (sc.hasNextLine()) {
-			
-			String line = sc.nextLine().trim();
-				
-			// ignore empty line
-			if (line.length() == 0) {
-				continue;
-			}
-			else if (!line.contains(COLON)) {
-				continue;
-			}
-				
-			// extract source file name and commit file name
-			String sourceFileName = line.split(COLON)[0];
-			String commitFileName = line.split(COLON)[1];
-			SourceFileStatus status = SourceFileStatus.valueOf(line.split(COLON)[2]);
-			
-			if (!recoverMap.containsKey(sourceFileName)) {
-				recoverMap.put(sourceFileName, new HashMap<>());
-			}
-			if (!recoverMap.get(sourceFileName).containsKey(commitFileName)) {
-				recoverMap.get(sourceFileName).put(commitFileName, 0);
-			}
-			
-			int oldVal = recoverMap.get(sourceFileName).get(commitFileName);
-			if (status.equals(SourceFileStatus.PREPARED)) {
-				recoverMap.get(sourceFileName).put(commitFileName, oldVal + 1);
-			}
-			else {
-				recoverMap.get(sourceFileName).put(commitFileName, oldVal - 1);
-			}
-		}
+		// read the snapshot and the log after it
+		Map<String, String> recovered = nodeLog.recover();
 		
 		// decide the prepared list of source files before restart
-		for (String sourceFileName : recoverMap.keySet()) {
+		for (Map.Entry<String, String> entry : recovered.entrySet()) {
 			
 			// if the file does not exist or already committed
-			File sourceFile = new File(sourceFileName);
+			File sourceFile = new File(entry.getKey());
 			if (!sourceFile.exists()) {
 				continue;
 			}
 			
-			// check if the source file is prepared for any commit
-			for (String commitFileName : recoverMap.get(sourceFileName).keySet()) {
-				if (recoverMap.get(sourceFileName).get(commitFileName) > 0) {
-					filesPrepared.put(sourceFileName, commitFileName);
-					break;
-				}
-			}
+			filesPrepared.put(entry.getKey(), entry.getValue());
 		}
+	}
+	
+	/**
+	 * Runs the path of a commit query once before the first message, with a vote that is
+	 * neither logged nor sent, so that the first commit does not pay for loading the classes
+	 * of the path and starting its threads. The answer completes after the stages are
+	 * chained, as the answer of a user does, and the log is opened ahead of its first record.
+	 */
+	private static void warmUp() {
 		
-		sc.close();
+		MessageContent vote = new MessageContent(WARM_UP_NAME, MessageType.COMMIT_AGREEMENT,
+							 WARM_UP_NAME, WARM_UP_NAME);
+		byte[] voteBytes = MessageConvert.packMessage(vote);
+		
+		try {
+			nodeLog.open();
+		} catch (IOException e) {
+			// the log is opened on its first record instead
+		}
+		
+		CompletableFuture<Boolean> answered = new CompletableFuture<>();
+		CompletableFuture<Void> voted = answered
+				 .exceptionally(e -> false)
+				 .completeOnTimeout(null, ASK_USER_DEADLINE_MILLIS, TimeUnit.MILLISECONDS)
+				 .thenAccept(answer -> {
+					 int[] locked = fileLocks.lock(new String[] {WARM_UP_NAME});
+					 fileLocks.unlock(locked);
+				 })
+				 .thenCompose(ignored -> groupCommit.sync())
+				 .thenRun(() -> MessageConvert.packMessage(vote));
+		askers.execute(() -> answered.complete(
+				!MessageConvert.unpackMessages(voteBytes).isEmpty()));
+		voted.exceptionally(e -> null).join();
+	}
+	
+	/**
+	 * Asks the user whether to agree to the commit query, without waiting for the answer.
+	 * The user is asked on the askers pool, and the vote is sent on the thread that completes
+	 * the question, as soon as the user answers.
+	 * If the user does not answer before the deadline, the User Node votes NO, and marks the
+	 * vote so that the Server does not take it as a round-trip time. The deadline is kept
+	 * within the time out of Phase I carried by the query.
+	 * 
+	 * @param addr - the address of the server of the commit query
+	 * @param rcvMsg - the commit query received by the user node
+	 */
+	private void handleCommitQuery(String addr, MessageContent rcvMsg) {
+		
+		long deadlineMillis = ASK_USER_DEADLINE_MILLIS;
+		if (rcvMsg.hasTimeOut()) {
+			deadlineMillis = Math.min(deadlineMillis,
+						  (long) (rcvMsg.getTimeOutMillis() * ASK_USER_TIME_OUT_SHARE));
+		}
+		
+		// ask the user for agreement, the only copy of the image made on the node
+		CompletableFuture.supplyAsync(() -> PL.askUser(rcvMsg.getImg().toByteArray(),
+							       rcvMsg.getFiles()), askers)
+				 .exceptionally(e -> false)
+				 .completeOnTimeout(null, deadlineMillis, TimeUnit.MILLISECONDS)
+				 .thenAccept(answer -> voteOnCommitQuery(addr, rcvMsg, answer));
 	}
 	
 	/**
@@ -218,90 +268,98 @@ public class UserNode implements ProjectLib.MessageHandling {
 	 * 
 	 * @param addr - the address of the server of the commit query
 	 * @param rcvMsg - the commit query received by the user node
+	 * @param answer - whether the user agreed to the commit, null if the user did not answer
+	 * 			before the deadline
 	 */
-	private synchronized void handleCommitQuery(String addr, MessageContent rcvMsg) {
+	private void voteOnCommitQuery(String addr, MessageContent rcvMsg, Boolean answer) {
 		
+		boolean ok = Boolean.TRUE.equals(answer);
 		// get file name
 		String commitFName = rcvMsg.getFileName();
+		// the state transitions of the message, logged as one record
+		StringBuilder record = new StringBuilder();
 		
-		// ask the user for agreement
-		boolean ok = PL.askUser(rcvMsg.getImg(), rcvMsg.getFiles());
-		
-		// check if any file is waiting for commit or already committed
-		for (String sourceFName : rcvMsg.getFiles()) {
-			File sourceFile = new File(sourceFName);
-			
-			// if the file does not exist or already committed
-			if (!sourceFile.exists()) {
+		// lock the source files of the query
+		int[] locked = fileLocks.lock(rcvMsg.getFiles());
+		try {
+			// vote NO if the Server already decided without waiting for the vote
+			queriesPending.remove(commitFName);
+			if (decidedBeforeVote.remove(commitFName)) {
 				ok = false;
-				break;
 			}
 			
-			// if the file is waiting for a commit decision
-			else if (filesPrepared.containsKey(sourceFName)) {
-				if (filesPrepared.get(sourceFName) != commitFName) {
+			// check if any file is waiting for commit or already committed
+			for (String sourceFName : rcvMsg.getFiles()) {
+				File sourceFile = new File(sourceFName);
+				
+				// if the file does not exist or already committed
+				if (!sourceFile.exists()) {
 					ok = false;
 					break;
 				}
-			}
-			
-			// otherwise add the file as prepared
-			else {
-				String str = sourceFName + COLON + commitFName + COLON + SourceFileStatus.PREPARED;
-				IOHelper.logPrintln(LOG_FPATH, str);
-				PL.fsync();
-				filesPrepared.put(sourceFName, commitFName);
-			}
-		}
-		
-		// update the files waiting for commit based on UserNode's decision
-		if (ok) {
-			
-			// mark all source files as prepared
-			for (String sourceFName : rcvMsg.getFiles()) {
-				if (!filesPrepared.containsKey(sourceFName)) {
-					
-					// log the change
-					String str = sourceFName + COLON + commitFName;
-					str += COLON + SourceFileStatus.PREPARED;
-					IOHelper.logPrintln(LOG_FPATH, str);
-					PL.fsync();
-					
-					// add the file
+				
+				// if the file is waiting for a commit decision
+				else if (filesPrepared.containsKey(sourceFName)) {
+					if (filesPrepared.get(sourceFName) != commitFName) {
+						ok = false;
+						break;
+					}
+				}
+				
+				// otherwise add the file as prepared
+				else {
+					String str = sourceFName + COLON + commitFName + COLON + SourceFileStatus.PREPARED;
+					record.append(str).append(NEW_LINE);
 					filesPrepared.put(sourceFName, commitFName);
 				}
 			}
-		}
-		
-		else {
-			// release all source files from prepared
-			for (String sourceFName : rcvMsg.getFiles()) {
+			
+			// update the files waiting for commit based on UserNode's decision
+			if (ok) {
 				
-				if (filesPrepared.containsKey(sourceFName)
-				&& filesPrepared.get(sourceFName).equals(commitFName)) {
-					
-					// log the change of the source file status
-					String str = sourceFName + COLON + commitFName;
-					str += COLON + SourceFileStatus.ABORTED;
-					IOHelper.logPrintln(LOG_FPATH, str);
-					PL.fsync();
+				// mark all source files as prepared
+				for (String sourceFName : rcvMsg.getFiles()) {
+					if (!filesPrepared.containsKey(sourceFName)) {
+						
+						// log the change
+						String str = sourceFName + COLON + commitFName;
+						str += COLON + SourceFileStatus.PREPARED;
+						record.append(str).append(NEW_LINE);
+						
+						// add the file
+						filesPrepared.put(sourceFName, commitFName);
+					}
+				}
+			}
+			
+			else {
+				// release all source files from prepared
+				for (String sourceFName : rcvMsg.getFiles()) {
 					
-					// remove the source file from prepared list
-					filesPrepared.remove(sourceFName);
+					if (filesPrepared.containsKey(sourceFName)
+					&& filesPrepared.get(sourceFName).equals(commitFName)) {
+						
+						// log the change of the source file status
+						String str = sourceFName + COLON + commitFName;
+						str += COLON + SourceFileStatus.ABORTED;
+						record.append(str).append(NEW_LINE);
+						
+						// remove the source file from prepared list
+						filesPrepared.remove(sourceFName);
+					}
 				}
 			}
+			
+			// build reply message
+			MessageContent rplMsg = new MessageContent(commitFName, MessageType.COMMIT_AGREEMENT, id, addr);
+			rplMsg.setAgreement(ok);
+			rplMsg.setAskTimedOut(answer == null);
+			
+			// reply once the state transitions are durable
+			replyWhenDurable(addr, rplMsg, record);
+		} finally {
+			fileLocks.unlock(locked);
 		}
-		
-		// build reply message
-		MessageContent rplMsg = new MessageContent(commitFName, MessageType.COMMIT_AGREEMENT, id, addr);
-		rplMsg.setAgreement(ok);
-		
-		// serialize the message
-		byte[] msgBytes = MessageConvert.packMessage(rplMsg);
-		
-		// send the message
-		ProjectLib.Message msg = new ProjectLib.Message(addr, msgBytes);
-		PL.sendMessage(msg);
 	}
 	
 	/**
@@ -310,59 +368,71 @@ public class UserNode implements ProjectLib.MessageHandling {
 	 * @param addr - the address of the sender of the commit message
 	 * @param rcvMsg - the commit messaged received by the user node
 	 */
-	private synchronized void handleCommitMessage(String addr, MessageContent rcvMsg) {
+	private void handleCommitMessage(String addr, MessageContent rcvMsg) {
 		
 		String commitFName = rcvMsg.getFileName();
+		// the state transitions of the message, logged as one record
+		StringBuilder record = new StringBuilder();
 		
-		// remove local files, if commit approved
-		if (rcvMsg.getAgreement()) {
+		boolean filesDeleted = false;
+		
+		// lock the source files of the commit
+		int[] locked = fileLocks.lock(rcvMsg.getFiles());
+		try {
+			// the query of the commit must not prepare the files once it is voted on
+			if (queriesPending.contains(commitFName)) {
+				decidedBeforeVote.add(commitFName);
+			}
 			
-			for (String fileName : rcvMsg.getFiles()) {
-				// delete the file on the disk
-				File file = new File(fileName);
-				file.delete();
-				PL.fsync();
+			// remove local files, if commit approved
+			if (rcvMsg.getAgreement()) {
 				
-				// remove from waiting
-				if (filesPrepared.containsKey(fileName)) {
-					// log the change
-					String str = fileName + COLON + commitFName;
-					str += COLON + SourceFileStatus.COMMITTED;
-					IOHelper.logPrintln(LOG_FPATH, str);
-					PL.fsync();
+				for (String fileName : rcvMsg.getFiles()) {
+					// delete the file on the disk
+					File file = new File(fileName);
+					filesDeleted |= file.delete();
 					
-					// remove from prepared
-					filesPrepared.remove(fileName);
+					// remove from waiting
+					if (filesPrepared.containsKey(fileName)) {
+						// log the change
+						String str = fileName + COLON + commitFName;
+						str += COLON + SourceFileStatus.COMMITTED;
+						record.append(str).append(NEW_LINE);
+						
+						// remove from prepared
+						filesPrepared.remove(fileName);
+					}
 				}
 			}
-		}
-		
-		// if commit denied
-		else {
-			for (String fileName : rcvMsg.getFiles()) {
-				if (filesPrepared.containsKey(fileName)) {
-					
-					// log the change
-					String str = fileName + COLON + commitFName;
-					str += COLON + SourceFileStatus.ABORTED;
-					IOHelper.logPrintln(LOG_FPATH, str);
-					PL.fsync();
-					
-					// move file from prepared to committed
-					filesPrepared.remove(fileName, commitFName);
+			
+			// if commit denied
+			else {
+				for (String fileName : rcvMsg.getFiles()) {
+					if (filesPrepared.containsKey(fileName)) {
+						
+						// log the change
+						String str = fileName + COLON + commitFName;
+						str += COLON + SourceFileStatus.ABORTED;
+						record.append(str).append(NEW_LINE);
+						
+						// move file from prepared to committed
+						filesPrepared.remove(fileName, commitFName);
+					}
 				}
 			}
+			
+			// build reply message
+			MessageContent rplMsg = new MessageContent(commitFName, MessageType.COMMIT_ACK, id, addr);
+			
+			// reply once the state transitions and the deleted files are durable
+			if (record.length() == 0 && filesDeleted) {
+				groupCommit.sync().thenRun(() -> sendReply(addr, rplMsg));
+				return;
+			}
+			replyWhenDurable(addr, rplMsg, record);
+		} finally {
+			fileLocks.unlock(locked);
 		}
-		
-		// build reply message
-		MessageContent rplMsg = new MessageContent(commitFName, MessageType.COMMIT_ACK, id, addr);
-		
-		// serialize the message
-		byte[] msgBytes = MessageConvert.packMessage(rplMsg);
-		
-		// send the message
-		ProjectLib.Message msg = new ProjectLib.Message(addr, msgBytes);
-		PL.sendMessage(msg);
 	}
 	
 	/**
@@ -373,47 +443,90 @@ public class UserNode implements ProjectLib.MessageHandling {
 	 * @param addr - address of sender
 	 * @param rcvMsg - content of the message
 	 */
-	private synchronized void handleCommitAbort(String addr, MessageContent rcvMsg) {
+	private void handleCommitAbort(String addr, MessageContent rcvMsg) {
 		
 		String commitFileName = rcvMsg.getFileName();
-		
-		// abort all files prepared for commit
-		for (String sourceFileName : rcvMsg.getFiles()) {
-			if (filesPrepared.containsKey(sourceFileName)
-			&& filesPrepared.get(sourceFileName).equals(commitFileName)) {
+		// the state transitions of the message, logged as one record
+		StringBuilder record = new StringBuilder();
 
-				// log the change
-				String str = sourceFileName + COLON + commitFileName;
-				str += COLON + SourceFileStatus.ABORTED;
-				IOHelper.logPrintln(LOG_FPATH, str);
-				PL.fsync();
-				
-				// remove the file
-				filesPrepared.remove(sourceFileName);
+		// lock the source files of the abort
+		int[] locked = fileLocks.lock(rcvMsg.getFiles());
+		try {
+			// the query of the commit must not prepare the files once it is voted on
+			if (queriesPending.contains(commitFileName)) {
+				decidedBeforeVote.add(commitFileName);
+			}
+			
+			// abort all files prepared for commit
+			for (String sourceFileName : rcvMsg.getFiles()) {
+				if (filesPrepared.containsKey(sourceFileName)
+				&& filesPrepared.get(sourceFileName).equals(commitFileName)) {
+
+					// log the change
+					String str = sourceFileName + COLON + commitFileName;
+					str += COLON + SourceFileStatus.ABORTED;
+					record.append(str).append(NEW_LINE);
+					
+					// remove the file
+					filesPrepared.remove(sourceFileName);
+				}
 			}
+			
+			// build reply message
+			MessageContent rplMsg = new MessageContent(commitFileName, MessageType.COMMIT_ACK, id, addr);
+			
+			// reply once the state transitions are durable
+			replyWhenDurable(addr, rplMsg, record);
+		} finally {
+			fileLocks.unlock(locked);
 		}
+	}
+
+	/**
+	 * Sends the reply to the Server once the log record of the state transitions made for
+	 * the message is durable. The record is made durable by the group commit, together with
+	 * the records of the other messages handled at the same time, and the reply is sent on the
+	 * thread of the group commit, without another hop. No reply is sent if the record
+	 * cannot be made durable, so the Server times out or sends the message again.
+	 * 
+	 * @param addr - the address of the Server
+	 * @param rplMsg - the reply message
+	 * @param record - the log record, empty if nothing changed
+	 */
+	private void replyWhenDurable(String addr, MessageContent rplMsg, StringBuilder record) {
 		
-		// build reply message
-		MessageContent rplMsg = new MessageContent(commitFileName, MessageType.COMMIT_ACK, id, addr);
+		if (record.length() == 0) {
+			sendReply(addr, rplMsg);
+			return;
+		}
+		groupCommit.log(record.toString()).thenRun(() -> sendReply(addr, rplMsg));
+	}
+	
+	/**
+	 * Sends the reply message to the Server.
+	 * 
+	 * @param addr - the address of the Server
+	 * @param rplMsg - the reply message
+	 */
+	private void sendReply(String addr, MessageContent rplMsg) {
 		
 		// serialize the message
 		byte[] msgBytes = MessageConvert.packMessage(rplMsg);
 		
 		// send the message
-		ProjectLib.Message msg = new ProjectLib.Message(addr, msgBytes);
-		PL.sendMessage(msg);
+		outbox.send(addr, msgBytes);
 	}
 
 	/**
 	 * A callback method that receives messages from the Server. This method identifies the
-	 * type of the message, and handles the message correspondingly.
+	 * type of each message of the batch, and handles the message correspondingly.
 	 * 
-	 * @param msg - the message received from the Server
+	 * @param msg - the message or batch of messages received from the Server
 	 * @return true - if the message is successfully received and processed
 	 * 	   false - otherwise
 	 */
 	@Override
-	public synchronized boolean deliverMessage(ProjectLib.Message msg) {
+	public boolean deliverMessage(ProjectLib.Message msg) {
 		
 		// wait until recovery has finished
 		while (!recoverFinished.get()) {
@@ -428,18 +541,47 @@ public class UserNode implements ProjectLib.MessageHandling {
 		byte[] msgBytes = msg.body;
 		String addr = msg.addr;
 		
-		// convert message content from bytes to object
-		MessageContent msgContent = MessageConvert.unpackMessage(msgBytes);
+		// convert message contents from bytes to objects
+		List<MessageContent> msgContents = MessageConvert.unpackMessages(msgBytes);
+		if (msgContents.isEmpty()) {
+			return false;
+		}
+		
+		boolean handled = true;
+		for (MessageContent msgContent : msgContents) {
+			handled &= dispatchMessage(addr, msgContent);
+		}
+		return handled;
+	}
+	
+	/**
+	 * Hands the message to the handler of its type.
+	 * 
+	 * @param addr - the address of the Server
+	 * @param msgContent - the message
+	 * @return true - if the message is of a known type
+	 * 	   false - otherwise
+	 */
+	private boolean dispatchMessage(String addr, MessageContent msgContent) {
+		
+		// take the files of this User Node out of a message shared by all the contributors
+		if (msgContent.hasRecipients() && !msgContent.selectRecipient(id)) {
+			System.err.print("User Node " + id + " is not a contributor of ");
+			System.err.println(msgContent.getFileName() + ".");
+			return false;
+		}
 		
 		switch (msgContent.getMessageType()) {
 			case COMMIT_QUERY:
+				queriesPending.add(msgContent.getFileName());
+				// only starts asking the user, so it does not hold the delivery thread
 				handleCommitQuery(addr, msgContent);
 				break;
 			case COMMIT_MSG:
-				handleCommitMessage(addr, msgContent);
+				handlers.execute(() -> handleCommitMessage(addr, msgContent));
 				break;
 			case COMMIT_ABORT:
-				handleCommitAbort(addr, msgContent);
+				handlers.execute(() -> handleCommitAbort(addr, msgContent));
 				break;
 			default:
 				System.err.print("Server Node " + id + " received unknown type of message ");
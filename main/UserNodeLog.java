@@ -0,0 +1,312 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ *
+ * @file UserNodeLog.java
+ *
+ * This class is the log of the source file status of a User Node.
+ *
+ * Each line of the log is a source file name, a commit file name and the new status of the
+ * source file, separated by colons. The log is split into generations. Once enough records
+ * have been logged in a generation, the log writes a snapshot of the prepared source files
+ * and starts the next generation, and then deletes the logs of the older generations.
+ * Recovery loads the snapshot and only replays the logs from its generation, so the restart
+ * time and the disk usage stay bounded.
+ *
+ * A snapshot may already hold the status changes of records that are logged in the next
+ * generation, as the User Node changes its status before its records are appended. Replaying
+ * a record therefore sets the status of the source file rather than counting the changes, so
+ * that replaying it twice has no effect.
+ *
+ * The log of generation 0 is log.txt, the log of older versions of the User Node.
+ *
+ * @author YanningMao <yanningm@andrew.cmu.edu>
+ * @date October 15, 2026
+ *
+ */
+public class UserNodeLog implements GroupCommit.Log<String> {
+
+	/* -------------------------------------------------------------------- */
+	/* --------------------------   Constants   --------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	// the number of records logged in a generation before the next snapshot
+	public static final int SNAPSHOT_INTERVAL = 4096;
+
+	private static final String COLON = ":";
+	private static final String LOG_FNAME = "log.txt";
+	private static final String LOG_FILE_PREFIX = "log_";
+	private static final String TXT_FILE_SUFFIX = ".txt";
+	private static final String SNAPSHOT_FNAME = "snapshot";
+	private static final String TMP_SUFFIX = ".tmp";
+	private static final String GENERATION_STR = "Generation";
+	private static final String NEW_LINE = System.lineSeparator();
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------   Instance Variables   ----------------------- */
+	/* -------------------------------------------------------------------- */
+
+	// the directory of the logs and the snapshot
+	private final File logDir;
+	// the source files prepared for a commit, which the snapshots are taken of
+	private final Map<String, String> filesPrepared;
+
+	// the generation being logged to
+	private long generation;
+	// the number of records logged in the generation
+	private int numRecords;
+
+
+	/* -------------------------------------------------------------------- */
+	/* -------------------------   Constructor   -------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Constructs the log in the given directory. The log must be recovered before any
+	 * record is appended.
+	 *
+	 * @param logDir - the directory of the logs and the snapshot
+	 * @param filesPrepared - the source files prepared for a commit, by the User Node
+	 */
+	public UserNodeLog(String logDir, Map<String, String> filesPrepared) {
+		this.logDir = new File(logDir);
+		this.filesPrepared = filesPrepared;
+		this.generation = 0;
+		this.numRecords = 0;
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Methods   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Reads the prepared source files from the last snapshot and the logs after it.
+	 *
+	 * @return recovered - the commit file name of each prepared source file
+	 */
+	public synchronized Map<String, String> recover() {
+
+		Map<String, String> recovered = new HashMap<>();
+		generation = readSnapshot(recovered);
+
+		// replay the logs from the generation of the snapshot
+		for (long logGeneration : listGenerations()) {
+			if (logGeneration < generation) {
+				continue;
+			}
+			generation = logGeneration;
+			numRecords = replay(getLogFile(logGeneration), recovered);
+		}
+
+		return recovered;
+	}
+
+	/**
+	 * Opens the log of the generation ahead of the first record.
+	 *
+	 * @throws IOException - exception when opening
+	 */
+	public synchronized void open() throws IOException {
+		LogWriter.forPath(getLogFile(generation).getPath()).open();
+	}
+
+	/**
+	 * Appends the records to the log of the generation with a single write, and takes
+	 * a snapshot once enough records have been logged in the generation.
+	 *
+	 * @param records - the records, with their new lines
+	 * @throws IOException - exception when writing
+	 */
+	@Override
+	public synchronized void append(List<String> records) throws IOException {
+
+		LogWriter.forPath(getLogFile(generation).getPath()).append(String.join("", records));
+
+		numRecords += records.size();
+		if (numRecords >= SNAPSHOT_INTERVAL) {
+			snapshot();
+		}
+	}
+
+
+	/* -------------------------------------------------------------------- */
+	/* ---------------------------   Helpers   ---------------------------- */
+	/* -------------------------------------------------------------------- */
+
+	/**
+	 * Writes the prepared source files as the snapshot of the next generation, starts
+	 * logging to the next generation and deletes the logs of the older generations.
+	 * The snapshot is written to a temporary file first and renamed over the old one.
+	 *
+	 * @throws IOException - exception when writing
+	 */
+	private void snapshot() throws IOException {
+
+		long nextGeneration = generation + 1;
+
+		StringBuilder snapshot = new StringBuilder();
+		snapshot.append(GENERATION_STR).append(COLON).append(nextGeneration).append(NEW_LINE);
+		for (Map.Entry<String, String> entry : filesPrepared.entrySet()) {
+			snapshot.append(entry.getKey()).append(COLON).append(entry.getValue());
+			snapshot.append(COLON).append(SourceFileStatus.PREPARED).append(NEW_LINE);
+		}
+
+		File tmpFile = new File(logDir, SNAPSHOT_FNAME + TMP_SUFFIX);
+		ByteBuffer bytes = ByteBuffer.wrap(snapshot.toString().getBytes(StandardCharsets.UTF_8));
+		try (FileChannel channel = FileChannel.open(tmpFile.toPath(),
+							    StandardOpenOption.CREATE,
+							    StandardOpenOption.TRUNCATE_EXISTING,
+							    StandardOpenOption.WRITE)) {
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+		}
+		Files.move(tmpFile.toPath(), new File(logDir, SNAPSHOT_FNAME).toPath(),
+			   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		// the older logs are covered by the snapshot
+		for (long logGeneration : listGenerations()) {
+			if (logGeneration < nextGeneration) {
+				File logFile = getLogFile(logGeneration);
+				LogWriter.close(logFile.getPath());
+				logFile.delete();
+			}
+		}
+
+		generation = nextGeneration;
+		numRecords = 0;
+	}
+
+	/**
+	 * Loads the last snapshot, if there is one.
+	 *
+	 * @param recovered - the map the prepared source files are added to
+	 * @return generation - the first generation to replay after the snapshot
+	 */
+	private long readSnapshot(Map<String, String> recovered) {
+
+		File snapshotFile = new File(logDir, SNAPSHOT_FNAME);
+		if (!snapshotFile.exists()) {
+			return 0;
+		}
+
+		long snapshotGeneration = 0;
+		try (Scanner sc = new Scanner(snapshotFile)) {
+			if (sc.hasNextLine()) {
+				snapshotGeneration = Long.parseLong(sc.nextLine().split(COLON)[1].trim());
+			}
+		} catch (FileNotFoundException e) {
+			return 0;
+		}
+
+		replay(snapshotFile, recovered);
+		return snapshotGeneration;
+	}
+
+	/**
+	 * Replays the records of the file on the prepared source files.
+	 *
+	 * @param file - the log or snapshot file
+	 * @param recovered - the prepared source files
+	 * @return numRecords - the number of records replayed
+	 */
+	private int replay(File file, Map<String, String> recovered) {
+
+		int numReplayed = 0;
+
+		Scanner sc;
+		try {
+			sc = new Scanner(file);
+		} catch (FileNotFoundException e) {
+			return numReplayed;
+		}
+
+		while (sc.hasNextLine()) {
+
+			String[] fields = sc.nextLine().trim().split(COLON);
+
+			// ignore empty lines and the generation of a snapshot
+			if (fields.length != 3) {
+				continue;
+			}
+
+			String sourceFileName = fields[0];
+			String commitFileName = fields[1];
+			SourceFileStatus status = SourceFileStatus.valueOf(fields[2]);
+
+			// set the status of the source file
+			if (status.equals(SourceFileStatus.PREPARED)) {
+				recovered.put(sourceFileName, commitFileName);
+			}
+			else {
+				recovered.remove(sourceFileName, commitFileName);
+			}
+			numReplayed ++;
+		}
+
+		sc.close();
+		return numReplayed;
+	}
+
+	/**
+	 * Lists the generations of the logs in the log directory, in increasing order.
+	 *
+	 * @return generations - the generations
+	 */
+	private List<Long> listGenerations() {
+
+		List<Long> generations = new ArrayList<>();
+		File[] files = logDir.listFiles();
+		if (files == null) {
+			return generations;
+		}
+
+		for (File file : files) {
+			String name = file.getName();
+			if (name.equals(LOG_FNAME)) {
+				generations.add(0L);
+			}
+			else if (name.startsWith(LOG_FILE_PREFIX) && name.endsWith(TXT_FILE_SUFFIX)) {
+				String logGeneration = name.substring(LOG_FILE_PREFIX.length(),
+								      name.length() - TXT_FILE_SUFFIX.length());
+				try {
+					generations.add(Long.parseLong(logGeneration));
+				} catch (NumberFormatException e) {
+					// ignore other files
+				}
+			}
+		}
+
+		generations.sort(null);
+		return generations;
+	}
+
+	/**
+	 * Gets the log file of the generation.
+	 *
+	 * @param logGeneration - the generation
+	 * @return file - the log file
+	 */
+	private File getLogFile(long logGeneration) {
+		if (logGeneration == 0) {
+			return new File(logDir, LOG_FNAME);
+		}
+		return new File(logDir, LOG_FILE_PREFIX + logGeneration + TXT_FILE_SUFFIX);
+	}
+
+}